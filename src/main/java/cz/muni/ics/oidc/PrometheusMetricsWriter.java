@@ -0,0 +1,145 @@
+package cz.muni.ics.oidc;
+
+import cz.muni.ics.oidc.data.DbStatementCounter;
+import cz.muni.ics.oidc.models.SyncResult;
+import cz.muni.ics.oidc.props.ConfProperties;
+import cz.muni.ics.oidc.rpc.PerunAdapter;
+import cz.muni.ics.oidc.rpc.PerunCallMetrics;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Writes the metrics of the run in the Prometheus text format for the textfile collector of the node exporter.
+ * Each mode has its own file in the configured directory. The file is written to {@code <name>.prom.tmp} first (the
+ * collector reads only *.prom files) and moved in place, so the collector never reads a partially written file.
+ */
+@Component
+@Slf4j
+public class PrometheusMetricsWriter {
+
+    public static final String MODE_TO_OIDC = "to_oidc";
+    public static final String MODE_TO_PERUN = "to_perun";
+
+    private static final String PREFIX = "spreg_oidc_sync_";
+
+    private final ConfProperties confProperties;
+    private final PerunAdapter perunAdapter;
+    private final DbStatementCounter dbStatementCounter;
+
+    @Autowired
+    public PrometheusMetricsWriter(@NonNull ConfProperties confProperties,
+                                   @NonNull PerunAdapter perunAdapter,
+                                   @NonNull DbStatementCounter dbStatementCounter)
+    {
+        this.confProperties = confProperties;
+        this.perunAdapter = perunAdapter;
+        this.dbStatementCounter = dbStatementCounter;
+    }
+
+    public boolean isEnabled() {
+        return StringUtils.hasText(confProperties.getMetricsOutputDirectory());
+    }
+
+    /**
+     * Reset the counters collected during the run, call at its start.
+     */
+    public void startRun() {
+        dbStatementCounter.reset();
+    }
+
+    /**
+     * Write the metrics of the finished run.
+     * @param mode Synchronization mode, used in the file name and as the label.
+     * @param result Result of the run.
+     * @param duration Duration of the whole run in ms.
+     */
+    public void write(String mode, SyncResult result, long duration) {
+        if (!isEnabled()) {
+            return;
+        }
+        Path file = Paths.get(confProperties.getMetricsOutputDirectory(), PREFIX + mode + ".prom");
+        String content = format(mode, result, duration);
+        try {
+            // not Files.createTempFile, its file is readable only by the owner, the collector may run as another user
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.write(tmp, content.getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.debug("Metrics written to '{}'", file);
+        } catch (IOException e) {
+            log.warn("Failed to write metrics to '{}'", file, e);
+        }
+    }
+
+    private String format(String mode, SyncResult result, long duration) {
+        String modeLabel = "mode=\"" + mode + '"';
+        StringBuilder out = new StringBuilder();
+
+        header(out, "last_run_timestamp_seconds", "Time when the last run finished.");
+        sample(out, "last_run_timestamp_seconds", modeLabel, System.currentTimeMillis() / 1000);
+        header(out, "run_duration_seconds", "Duration of the last run.");
+        sample(out, "run_duration_seconds", modeLabel, seconds(duration));
+        header(out, "aborted", "Whether the last run has been aborted.");
+        sample(out, "aborted", modeLabel, result.isAborted() ? 1 : 0);
+
+        header(out, "phase_duration_seconds", "Time spent in the phases of the last run, summed over the workers.");
+        for (Map.Entry<String, Long> phase: result.getPhaseDurations().entrySet()) {
+            sample(out, "phase_duration_seconds", modeLabel + ",phase=\"" + phase.getKey() + '"',
+                    seconds(phase.getValue()));
+        }
+
+        header(out, "items", "Number of clients (TO_OIDC) or facilities (TO_PERUN) by the outcome in the last run.");
+        sample(out, "items", modeLabel + ",result=\"created\"", result.getCreated());
+        sample(out, "items", modeLabel + ",result=\"updated\"", result.getUpdated());
+        sample(out, "items", modeLabel + ",result=\"unchanged\"", result.getUnchanged());
+        sample(out, "items", modeLabel + ",result=\"deleted\"", result.getDeleted());
+        header(out, "errors", "Number of errors in the last run.");
+        sample(out, "errors", modeLabel, result.getErrors());
+
+        Map<String, PerunCallMetrics.Snapshot> calls = perunAdapter.getCallMetrics();
+        header(out, "perun_calls", "Number of calls to Perun RPC in the last run.");
+        calls.forEach((method, s) -> sample(out, "perun_calls", methodLabels(modeLabel, method), s.getCalls()));
+        header(out, "perun_call_errors", "Number of failed calls to Perun RPC in the last run.");
+        calls.forEach((method, s) -> sample(out, "perun_call_errors", methodLabels(modeLabel, method),
+                s.getErrors()));
+        header(out, "perun_call_duration_seconds", "Total duration of calls to Perun RPC in the last run.");
+        calls.forEach((method, s) -> sample(out, "perun_call_duration_seconds", methodLabels(modeLabel, method),
+                seconds(s.getTotalLatency())));
+        header(out, "perun_call_retries", "Number of retried calls to Perun RPC in the last run.");
+        sample(out, "perun_call_retries", modeLabel, result.getRetries());
+
+        header(out, "db_statements", "Number of SQL statements executed in the last run.");
+        sample(out, "db_statements", modeLabel + ",type=\"read\"", dbStatementCounter.getReads());
+        sample(out, "db_statements", modeLabel + ",type=\"write\"", dbStatementCounter.getWrites());
+        return out.toString();
+    }
+
+    private static void header(StringBuilder out, String name, String help) {
+        out.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(PREFIX).append(name).append(" gauge\n");
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, Object value) {
+        out.append(PREFIX).append(name).append('{').append(labels).append("} ").append(value).append('\n');
+    }
+
+    private static String methodLabels(String modeLabel, String method) {
+        return modeLabel + ",method=\"" + method.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+    }
+
+    private static String seconds(long millis) {
+        return String.format(Locale.ROOT, "%.3f", millis / 1000.0);
+    }
+
+}
@@ -0,0 +1,52 @@
+package cz.muni.ics.oidc;
+
+import cz.muni.ics.oidc.models.SyncResult;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event of processing a single facility (TO_OIDC) or client (TO_PERUN).
+ */
+@Name("cz.muni.ics.oidc.SyncItem")
+@Label("Sync Item")
+@Category({"SP Registry Sync", "Synchronization"})
+@Description("Processing of a single facility or client")
+class SyncItemEvent extends Event {
+
+    @Label("Mode")
+    String mode;
+
+    @Label("Client ID")
+    String clientId;
+
+    @Label("Outcome")
+    @Description("created, updated, unchanged, error, or none when the item has been skipped")
+    String outcome;
+
+    /**
+     * Finish the event with the outcome taken from the result of the single item.
+     */
+    void finish(String clientId, SyncResult itemResult) {
+        end();
+        if (!shouldCommit()) {
+            return;
+        }
+        this.clientId = clientId;
+        if (itemResult.getErrors() > 0) {
+            outcome = "error";
+        } else if (itemResult.getCreated() > 0) {
+            outcome = "created";
+        } else if (itemResult.getUpdated() > 0) {
+            outcome = "updated";
+        } else if (itemResult.getUnchanged() > 0) {
+            outcome = "unchanged";
+        } else {
+            outcome = "none";
+        }
+        commit();
+    }
+
+}
@@ -16,6 +16,7 @@ import java.sql.Timestamp;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.stream.Collectors;
 
 @Component
 @Slf4j
@@ -30,33 +31,58 @@ public class Synchronizer {
     private final ToPerunSynchronizer toPerunSynchronizer;
     private final ToOidcSynchronizer toOidcSynchronizer;
     private final ConfProperties confProperties;
+    private final PrometheusMetricsWriter metricsWriter;
     private boolean interactive = false;
 
     @Autowired
     public Synchronizer(ToPerunSynchronizer toPerunSynchronizer,
                         ToOidcSynchronizer toOidcSynchronizer,
-                        ConfProperties confProperties)
+                        ConfProperties confProperties,
+                        PrometheusMetricsWriter metricsWriter)
     {
         this.toPerunSynchronizer = toPerunSynchronizer;
         this.toOidcSynchronizer = toOidcSynchronizer;
         this.confProperties = confProperties;
+        this.metricsWriter = metricsWriter;
     }
 
     public void syncToPerun() {
         log.info("Started synchronization to PERUN");
+        long startTime = System.currentTimeMillis();
+        metricsWriter.startRun();
         SyncResult syncResult = toPerunSynchronizer.syncToPerun(interactive);
-        log.info("Finished syncing TO PERUN:\n Created {}, Updated: {}, Deleted {}, errors: {}",
-                syncResult.getCreated(), syncResult.getUpdated(), syncResult.getDeleted(), syncResult.getErrors());
+        long duration = System.currentTimeMillis() - startTime;
+        log.info("Finished syncing TO PERUN:\n Created {}, Updated: {}, Unchanged: {}, Deleted {}, errors: {}, " +
+                        "retried Perun calls: {}", syncResult.getCreated(), syncResult.getUpdated(),
+                syncResult.getUnchanged(), syncResult.getDeleted(), syncResult.getErrors(), syncResult.getRetries());
+        if (syncResult.isAborted()) {
+            log.error("Synchronization TO PERUN has been aborted: {}", syncResult.getAbortReason());
+        }
+        if (!syncResult.getChangedAttributes().isEmpty()) {
+            log.info("Changed attributes (attribute: number of facilities):\n {}",
+                    syncResult.getChangedAttributes().entrySet().stream()
+                            .map(e -> e.getKey() + ": " + e.getValue())
+                            .collect(Collectors.joining("\n ")));
+        }
+        metricsWriter.write(PrometheusMetricsWriter.MODE_TO_PERUN, syncResult, duration);
     }
 
     public void syncToOidc() {
         log.info("Started synchronization to OIDC DB");
+        long startTime = System.currentTimeMillis();
+        metricsWriter.startRun();
         SyncResult syncResult = toOidcSynchronizer.syncToOidc(interactive);
-        log.info("Finished syncing TO OIDC:\n Created {}, Updated: {}, Deleted {}, errors: {}",
-                syncResult.getCreated(), syncResult.getUpdated(), syncResult.getDeleted(), syncResult.getErrors());
+        long duration = System.currentTimeMillis() - startTime;
+        log.info("Finished syncing TO OIDC:\n Created {}, Updated: {}, Unchanged: {}, Deleted {}, errors: {}, " +
+                        "retried Perun calls: {}", syncResult.getCreated(), syncResult.getUpdated(),
+                syncResult.getUnchanged(), syncResult.getDeleted(), syncResult.getErrors(), syncResult.getRetries());
+        if (syncResult.isAborted()) {
+            log.error("Synchronization TO OIDC has been aborted: {}", syncResult.getAbortReason());
+        }
+        metricsWriter.write(PrometheusMetricsWriter.MODE_TO_OIDC, syncResult, duration);
         if (StringUtils.hasText(confProperties.getProbeOutputFileLocation())) {
             String output;
-            if (syncResult.getErrors() > 0) {
+            if (syncResult.isAborted() || syncResult.getErrors() > 0) {
                 output = "NOK";
             } else {
                 output = "OK";
@@ -64,6 +90,9 @@ public class Synchronizer {
             Date date = new Date(System.currentTimeMillis());
             DateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
             output += (';' + format.format(date));
+            if (syncResult.isAborted()) {
+                output += (';' + syncResult.getAbortReason().replaceAll("[;\\r\\n]", " "));
+            }
             try (OutputStreamWriter osw = new OutputStreamWriter(
                     new FileOutputStream(confProperties.getProbeOutputFileLocation())))
             {
@@ -1,17 +1,20 @@
 package cz.muni.ics.oidc;
 
+import cz.muni.ics.oidc.data.ClientBatchWriter;
 import cz.muni.ics.oidc.data.ClientRepository;
 import cz.muni.ics.oidc.exception.PerunConnectionException;
 import cz.muni.ics.oidc.exception.PerunUnknownException;
-import cz.muni.ics.oidc.models.Facility;
 import cz.muni.ics.oidc.models.MitreidClient;
+import cz.muni.ics.oidc.models.MitreidClientIndex;
 import cz.muni.ics.oidc.models.PKCEAlgorithm;
 import cz.muni.ics.oidc.models.PerunAttributeValue;
+import cz.muni.ics.oidc.models.RichFacility;
 import cz.muni.ics.oidc.models.SyncResult;
 import cz.muni.ics.oidc.props.ActionsProperties;
 import cz.muni.ics.oidc.props.AttrsMapping;
 import cz.muni.ics.oidc.props.ConfProperties;
 import cz.muni.ics.oidc.props.GrantTypesTimeoutsProperties;
+import cz.muni.ics.oidc.props.JdbcProperties;
 import cz.muni.ics.oidc.rpc.PerunAdapter;
 import de.danielbechler.diff.ObjectDifferBuilder;
 import de.danielbechler.diff.node.DiffNode;
@@ -26,16 +29,20 @@ import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.spec.SecretKeySpec;
 import java.security.InvalidKeyException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import static cz.muni.ics.oidc.Synchronizer.DO_YOU_WANT_TO_PROCEED;
@@ -93,6 +100,22 @@ public class ToOidcSynchronizer {
     public static final String PKCE_TYPE_NONE = "none";
     public static final String PKCE_TYPE_PLAIN = "plain code challenge";
     public static final String PKCE_TYPE_SHA256 = "SHA256 code challenge";
+
+    // fields of the client set from Perun, compared to find out whether the client has to be written
+    private static final List<Function<MitreidClient, Object>> SYNCED_FIELDS = List.of(
+            MitreidClient::getClientId, MitreidClient::getClientSecret, MitreidClient::getClientName,
+            MitreidClient::getClientDescription, MitreidClient::isAllowIntrospection,
+            MitreidClient::getCodeChallengeMethod, MitreidClient::getTokenEndpointAuthMethod,
+            MitreidClient::isClearAccessTokensOnRefresh, MitreidClient::isReuseRefreshToken,
+            MitreidClient::getAccessTokenValiditySeconds, MitreidClient::getIdTokenValiditySeconds,
+            MitreidClient::getRefreshTokenValiditySeconds, MitreidClient::getDeviceCodeValiditySeconds,
+            MitreidClient::getPolicyUri, MitreidClient::getClientUri
+    );
+    private static final List<Function<MitreidClient, Set<String>>> SYNCED_SET_FIELDS = List.of(
+            MitreidClient::getRedirectUris, MitreidClient::getPostLogoutRedirectUris, MitreidClient::getScope,
+            MitreidClient::getGrantTypes, MitreidClient::getResponseTypes, MitreidClient::getContacts
+    );
+
     private final PerunAdapter perunAdapter;
     private final String proxyIdentifier;
     private final String proxyIdentifierValue;
@@ -102,11 +125,16 @@ public class ToOidcSynchronizer {
     private final GrantTypesTimeoutsProperties grantTypesTimeoutsProperties;
     private final Cipher cipher;
     private final SecretKeySpec secretKeySpec;
+    private final int workers;
+    private final int writeChunkSize;
+    private final int writers;
 
     private final Scanner scanner = new Scanner(System.in);
 
     private boolean interactiveMode = false;
-    private boolean proceedToDelete = true;
+    private volatile boolean proceedToDelete = true;
+    private volatile MitreidClientIndex clients;
+    private volatile ClientBatchWriter writer;
 
     @Autowired
     public ToOidcSynchronizer(@NonNull PerunAdapter perunAdapter,
@@ -115,6 +143,7 @@ public class ToOidcSynchronizer {
                               @NonNull ClientRepository clientRepository,
                               @NonNull ActionsProperties actionsProperties,
                               @NonNull GrantTypesTimeoutsProperties grantTypesTimeoutsProperties,
+                              @NonNull JdbcProperties jdbcProperties,
                               @NonNull Cipher cipher,
                               @NonNull SecretKeySpec secretKeySpec)
     {
@@ -127,29 +156,69 @@ public class ToOidcSynchronizer {
         this.secretKeySpec = secretKeySpec;
         this.proxyIdentifier = perunAttrNames.getProxyIdentifier();
         this.proxyIdentifierValue = confProperties.getProxyIdentifierValue();
+        this.workers = confProperties.getWorkers();
+        this.writeChunkSize = jdbcProperties.getWriteChunkSize();
+        this.writers = jdbcProperties.getWriters();
     }
 
     public SyncResult syncToOidc(boolean interactiveMode) {
         this.interactiveMode = interactiveMode;
+        this.proceedToDelete = true;
         log.info("Started synchronization to OIDC DB");
         SyncResult res = new SyncResult();
-        Set<Facility> facilities;
+        Set<RichFacility> facilities;
+        perunAdapter.startRun();
+        long fetchStart = System.currentTimeMillis();
         try {
-            facilities = new HashSet<>(perunAdapter.getFacilitiesByAttribute(
-                    proxyIdentifier, proxyIdentifierValue));
+            // attributes are only read here, the large response can be decoded as a stream
+            facilities = new HashSet<>(perunAdapter.getFacilitiesByAttributeWithAttributes(
+                    proxyIdentifier, proxyIdentifierValue, perunAttrNames.getNames(), true));
         } catch (PerunConnectionException | PerunUnknownException e) {
             log.error("Caught exception when fetching facilities by attr '{}' with value '{}'",
                     proxyIdentifier, proxyIdentifierValue, e);
+            res.abort("Fetching facilities from Perun failed: " + e.getMessage());
             return res;
+        } finally {
+            res.addPhaseDuration(SyncResult.PHASE_FETCH, System.currentTimeMillis() - fetchStart);
+            res.addRetries(perunAdapter.getRetries());
+            perunAdapter.finishRun();
         }
-        log.info("Processing facilities");
-        Set<String> foundClientIds = new HashSet<>();
-        for (Facility f : facilities) {
-            processFacility(f, foundClientIds, res);
+        long loadStart = System.currentTimeMillis();
+        try {
+            clients = new MitreidClientIndex(clientRepository.getAll());
+            log.debug("Loaded {} clients", clients.size());
+        } catch (RuntimeException e) {
+            log.error("Caught exception when loading clients from the database", e);
+            res.abort("Loading clients from the database failed: " + e.getMessage());
+            return res;
+        } finally {
+            res.addPhaseDuration(SyncResult.PHASE_FETCH, System.currentTimeMillis() - loadStart);
+        }
+        // interactive mode needs the user to confirm each action, process it sequentially
+        int parallelism = interactiveMode ? 1 : workers;
+        log.info("Processing facilities using {} worker(s)", parallelism);
+        Set<String> foundClientIds = ConcurrentHashMap.newKeySet();
+        // interactive mode writes each confirmed change immediately
+        writer = new ClientBatchWriter(clientRepository, interactiveMode ? 1 : writeChunkSize,
+                interactiveMode ? 1 : writers, res);
+        int failed;
+        try {
+            failed = Utils.processInParallel(groupByClientId(facilities), parallelism, "to-oidc",
+                    group -> group.forEach(f -> processFacility(f, foundClientIds, res)));
+            writer.flush();
+        } finally {
+            writer.close();
+        }
+        if (failed > 0) {
+            log.warn("Processing of {} facility groups failed unexpectedly. Disabling client removal!", failed);
+            res.incErrors(failed);
+            proceedToDelete = false;
         }
         if (proceedToDelete) {
             log.info("Removing old clients");
+            long deleteStart = System.currentTimeMillis();
             deleteClients(foundClientIds, res);
+            res.addPhaseDuration(SyncResult.PHASE_DELETE, System.currentTimeMillis() - deleteStart);
         } else {
             log.warn("Script has disabled removing of old clients. " +
                 "This might be due to Peruns unreachability! Check previous logs for more info.");
@@ -157,94 +226,134 @@ public class ToOidcSynchronizer {
         return res;
     }
 
-    private void processFacility(Facility f, Set<String> foundClientIds, SyncResult res) {
+    /**
+     * Facilities with the same client_id would modify the same client from the index, so they are kept in one group
+     * and processed by a single worker.
+     */
+    private Collection<List<RichFacility>> groupByClientId(Collection<RichFacility> facilities) {
+        Map<String, List<RichFacility>> groups = new LinkedHashMap<>();
+        for (RichFacility f: facilities) {
+            groups.computeIfAbsent(getClientId(f), k -> new ArrayList<>()).add(f);
+        }
+        return groups.values();
+    }
+
+    private void processFacility(RichFacility f, Set<String> foundClientIds, SyncResult res) {
+        SyncItemEvent event = new SyncItemEvent();
+        event.mode = Application.VAL_MODE_TO_OIDC;
+        event.begin();
+        SyncResult itemResult = new SyncResult();
+        // the item is finished once its client has been written, which happens later in the writer thread
+        Runnable finish = () -> {
+            res.add(itemResult);
+            event.finish(getClientId(f), itemResult);
+        };
+        boolean writing = false;
+        try {
+            writing = syncFacility(f, foundClientIds, itemResult, finish);
+        } finally {
+            if (!writing) {
+                finish.run();
+            }
+        }
+    }
+
+    private String getClientId(RichFacility f) {
+        PerunAttributeValue clientId = f == null ? null : f.getAttributeValues().get(perunAttrNames.getClientId());
+        return clientId == null ? null : clientId.valueAsString();
+    }
+
+    /**
+     * @param onWritten Called once the client of the facility has been written.
+     * @return TRUE if the client has been handed over to the writer, onWritten is called then.
+     */
+    private boolean syncFacility(RichFacility f, Set<String> foundClientIds, SyncResult res, Runnable onWritten) {
         try {
             if (f == null) {
                 log.warn("NULL facility given, generating error and continue on processing");
                 res.incErrors();
-                return;
+                return false;
             }
             log.debug("Processing facility '{}'", f);
-            Map<String, PerunAttributeValue> attrsFromPerun = getAttrsFromPerun(f.getId());
+            Map<String, PerunAttributeValue> attrsFromPerun = f.getAttributeValues();
+            log.trace("{}", attrsFromPerun);
+            if (attrsFromPerun.get(perunAttrNames.getClientId()) == null) {
+                log.warn("Facility '{}' has been returned from Perun without attributes. Disabling client removal!", f);
+                proceedToDelete = false;
+                res.incErrors();
+                return false;
+            }
             String clientId = attrsFromPerun.get(perunAttrNames.getClientId()).valueAsString();
             if (!StringUtils.hasText(clientId)) {
                 log.debug("ClientID is null, facility is probably not OIDC, skip it.");
-                return;
+                return false;
             } else if (actionsProperties.getProtectedClientIds().contains(clientId)) {
                 log.debug("ClientID is marked as protected in configuration, skip it.");
-                return;
+                return false;
             }
             foundClientIds.add(clientId);
             MitreidClient mitreClient = getMitreClient(clientId);
+            boolean writing;
             if (mitreClient == null) {
                 log.info("No client found for client_id '{}' - create new", clientId);
-                createClient(attrsFromPerun, res);
+                writing = createClient(attrsFromPerun, res, onWritten);
             } else {
                 log.info("Existing client found for client_id '{}' - update it", clientId);
-                updateClient(mitreClient, attrsFromPerun, res);
+                writing = updateClient(mitreClient, attrsFromPerun, res, onWritten);
             }
             log.info("Client with id '{}' processed", clientId);
-        } catch (PerunConnectionException | PerunUnknownException ex) {
-            log.warn("Caught exception from Perun. Can be unreachable. Disabling client removal!", ex);
-            proceedToDelete = false;
-            res.incErrors();
+            return writing;
         } catch (Exception e) {
             log.warn("Caught exception when syncing facility {}", f, e);
             res.incErrors();
+            return false;
         }
     }
 
     private MitreidClient getMitreClient(String clientId) {
-        MitreidClient mitreClient = clientRepository.getClientByClientId(clientId);
+        MitreidClient mitreClient = clients.getByClientId(clientId);
         log.debug("Got MitreID client");
         log.trace("{}", mitreClient);
         return mitreClient;
     }
 
-    private Map<String, PerunAttributeValue> getAttrsFromPerun(Long facilityId)
-            throws PerunUnknownException, PerunConnectionException
-    {
-        Map<String, PerunAttributeValue> attrsFromPerun = perunAdapter.getAttributesValues(
-                facilityId, perunAttrNames.getNames());
-        log.debug("Got facility attributes");
-        log.trace("{}", attrsFromPerun);
-        return attrsFromPerun;
-    }
-
     private Set<String> getClientIdsToDelete(Collection<String> foundClientIds) {
-        Set<String> ids = clientRepository.getAllClientIds();
+        Set<String> ids = new HashSet<>(clients.getClientIds());
         ids.removeAll(foundClientIds);
         ids.removeAll(actionsProperties.getProtectedClientIds());
         return ids;
     }
 
-    private void createClient(Map<String, PerunAttributeValue> attrs, SyncResult res)
+    private boolean createClient(Map<String, PerunAttributeValue> attrs, SyncResult res, Runnable onWritten)
             throws BadPaddingException, InvalidKeyException, IllegalBlockSizeException
     {
         if (actionsProperties.getToOidc().isCreate()) {
+            long transformStart = System.currentTimeMillis();
             MitreidClient c = new MitreidClient();
             setClientFields(c, attrs);
             c.setCreatedAt(new Date());
+            res.addPhaseDuration(SyncResult.PHASE_TRANSFORM, System.currentTimeMillis() - transformStart);
             if (interactiveMode) {
                 System.out.println("Following client will be created");
                 System.out.println(c);
                 System.out.println(DO_YOU_WANT_TO_PROCEED);
                 String response = scanner.nextLine();
                 if (!Y.equalsIgnoreCase(response) && !YES.equalsIgnoreCase(response)) {
-                    return;
+                    return false;
                 }
             }
-            clientRepository.saveClient(c);
-            log.debug("Client created");
-            res.incCreated();
+            writer.create(c, res, onWritten);
+            return true;
         } else {
             log.warn("Creating clients is disabled, skip creation");
+            return false;
         }
     }
 
-    private void updateClient(MitreidClient original,
-                              Map<String, PerunAttributeValue> attrs,
-                              SyncResult res)
+    private boolean updateClient(MitreidClient original,
+                                 Map<String, PerunAttributeValue> attrs,
+                                 SyncResult res,
+                                 Runnable onWritten)
             throws BadPaddingException, InvalidKeyException, IllegalBlockSizeException
     {
         if (actionsProperties.getToOidc().isUpdate()) {
@@ -252,6 +361,11 @@ public class ToOidcSynchronizer {
             if (interactiveMode) {
                 MitreidClient updated = clientRepository.getClientByClientId(original.getClientId());
                 this.setClientFields(updated, attrs);
+                if (getSyncedFields(original).equals(getSyncedFields(updated))) {
+                    log.debug("Client '{}' is up to date", original.getClientId());
+                    res.incUnchanged();
+                    return false;
+                }
                 DiffNode diff = ObjectDifferBuilder.buildDefault().compare(original, updated);
                 if (diff.hasChanges()) {
                     System.out.println(SPACER);
@@ -259,23 +373,47 @@ public class ToOidcSynchronizer {
                     System.out.println(DO_YOU_WANT_TO_PROCEED);
                     String response = scanner.nextLine();
                     if (!Y.equalsIgnoreCase(response) && !YES.equalsIgnoreCase(response)) {
-                        return;
+                        return false;
                     } else {
                         System.out.println(SPACER);
                     }
                 }
                 toUpdate = updated;
-                clientRepository.updateClient(original.getId(), updated);
             } else {
+                long transformStart = System.currentTimeMillis();
+                List<Object> syncedFields = getSyncedFields(original);
                 this.setClientFields(original, attrs);
+                boolean unchanged = syncedFields.equals(getSyncedFields(original));
+                res.addPhaseDuration(SyncResult.PHASE_TRANSFORM, System.currentTimeMillis() - transformStart);
+                if (unchanged) {
+                    log.debug("Client '{}' is up to date", original.getClientId());
+                    res.incUnchanged();
+                    return false;
+                }
                 toUpdate = original;
             }
-            clientRepository.updateClient(original.getId(), toUpdate);
-            log.debug("Client updated");
-            res.incUpdated();
+            writer.update(toUpdate, res, onWritten);
+            return true;
         } else {
             log.warn("Updating clients is disabled, skip update");
+            return false;
+        }
+    }
+
+    /**
+     * @return Values of the fields set from Perun, sets are copied (and NULL sets replaced by empty ones, both are
+     * stored the same way) so the values can be compared after the client has been modified.
+     */
+    private static List<Object> getSyncedFields(MitreidClient c) {
+        List<Object> values = new ArrayList<>(SYNCED_FIELDS.size() + SYNCED_SET_FIELDS.size());
+        for (Function<MitreidClient, Object> field: SYNCED_FIELDS) {
+            values.add(field.apply(c));
+        }
+        for (Function<MitreidClient, Set<String>> field: SYNCED_SET_FIELDS) {
+            Set<String> value = field.apply(c);
+            values.add(value == null ? new HashSet<>() : new HashSet<>(value));
         }
+        return values;
     }
 
     private void diffVisit(DiffNode node, MitreidClient original, MitreidClient updated) {
@@ -306,7 +444,7 @@ public class ToOidcSynchronizer {
         if (actionsProperties.getToOidc().isDelete()) {
             if (interactiveMode) {
                 for (String clientId: clientsToDelete) {
-                    MitreidClient c = clientRepository.getClientByClientId(clientId);
+                    MitreidClient c = clients.getByClientId(clientId);
                     System.out.println("About to remove following client");
                     System.out.println(c);
                     System.out.println(DO_YOU_WANT_TO_PROCEED);
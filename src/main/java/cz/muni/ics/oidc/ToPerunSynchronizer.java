@@ -12,10 +12,12 @@ import cz.muni.ics.oidc.exception.PerunConnectionException;
 import cz.muni.ics.oidc.exception.PerunUnknownException;
 import cz.muni.ics.oidc.models.Facility;
 import cz.muni.ics.oidc.models.Group;
+import cz.muni.ics.oidc.models.ManagersGroupIndex;
 import cz.muni.ics.oidc.models.MitreidClient;
 import cz.muni.ics.oidc.models.PKCEAlgorithm;
 import cz.muni.ics.oidc.models.PerunAttribute;
 import cz.muni.ics.oidc.models.PerunAttributeValue;
+import cz.muni.ics.oidc.models.RichFacility;
 import cz.muni.ics.oidc.models.SyncResult;
 import cz.muni.ics.oidc.props.ActionsProperties;
 import cz.muni.ics.oidc.props.AttrsMapping;
@@ -40,11 +42,13 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Scanner;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -66,10 +70,14 @@ public class ToPerunSynchronizer {
     private final ActionsProperties actionsProperties;
     private final Cipher cipher;
     private final SecretKeySpec secretKeySpec;
+    private final int workers;
 
     private final Scanner scanner = new Scanner(System.in);
+    private final Object managersGroupLock = new Object();
 
     private boolean interactiveMode = false;
+    // NULL if the managers groups could not be preloaded, groups are looked up in Perun then
+    private volatile ManagersGroupIndex managersGroups;
 
     @Autowired
     public ToPerunSynchronizer(@NonNull PerunAdapter perunAdapter,
@@ -88,25 +96,107 @@ public class ToPerunSynchronizer {
         this.cipher = cipher;
         this.secretKeySpec = secretKeySpec;
         this.proxyIdentifier = perunAttrNames.getProxyIdentifier();
+        this.workers = confProperties.getWorkers();
     }
 
     public SyncResult syncToPerun(boolean interactive) {
         this.interactiveMode = interactive;
         SyncResult syncResult = new SyncResult();
-        Map<String, Facility> presentFacilities = fillPresentFacilities();
-        if (presentFacilities == null || presentFacilities.isEmpty()) {
+        perunAdapter.startRun();
+        try {
+            long fetchStart = System.currentTimeMillis();
+            Map<String, Facility> presentFacilities = fillPresentFacilities();
+            if (presentFacilities == null) {
+                syncResult.abort("Fetching facilities from Perun failed");
+                return syncResult;
+            } else if (presentFacilities.isEmpty()) {
+                return syncResult;
+            }
+            managersGroups = loadManagersGroups();
+
+            List<MitreidClient> mitreidClients = clientRepository.getAll();
+            syncResult.addPhaseDuration(SyncResult.PHASE_FETCH, System.currentTimeMillis() - fetchStart);
+            // interactive mode needs the user to confirm each action, process it sequentially
+            int parallelism = interactiveMode ? 1 : workers;
+            log.info("Processing clients using {} worker(s)", parallelism);
+            int failed = Utils.processInParallel(groupByClientId(mitreidClients), parallelism, "to-perun",
+                    clients -> clients.forEach(client -> processClient(client, presentFacilities, syncResult)));
+            checkCircuitBreaker(syncResult);
+            if (failed > 0) {
+                syncResult.incErrors(failed);
+            }
+            if (syncResult.isAborted()) {
+                log.warn("Synchronization has been aborted, deleting of facilities is disabled");
+            } else if (failed > 0) {
+                log.warn("Processing of {} client groups failed unexpectedly, deleting of facilities is disabled",
+                        failed);
+            } else {
+                long deleteStart = System.currentTimeMillis();
+                deleteFacilitiesWithoutClients(presentFacilities, syncResult);
+                syncResult.addPhaseDuration(SyncResult.PHASE_DELETE, System.currentTimeMillis() - deleteStart);
+            }
             return syncResult;
+        } finally {
+            syncResult.addRetries(perunAdapter.getRetries());
+            perunAdapter.finishRun();
         }
+    }
 
-        List<MitreidClient> mitreidClients = clientRepository.getAll();
-        for (MitreidClient client: mitreidClients) {
-            processClient(client, presentFacilities, syncResult);
+    /**
+     * Load all the managers groups at once, NULL if they cannot be loaded.
+     */
+    private ManagersGroupIndex loadManagersGroups() {
+        try {
+            ManagersGroupIndex index = new ManagersGroupIndex(
+                    perunAdapter.getSubGroups(confProperties.getManagersGroupParentGroupId()));
+            log.debug("Loaded {} managers groups", index.size());
+            return index;
+        } catch (PerunConnectionException | PerunUnknownException e) {
+            log.warn("Failed to load managers groups, the groups will be looked up one by one", e);
+            return null;
+        }
+    }
+
+    /**
+     * Clients with the same client_id would update the same facility, so they are kept in one group
+     * and processed by a single worker.
+     */
+    private Collection<List<MitreidClient>> groupByClientId(List<MitreidClient> clients) {
+        Map<String, List<MitreidClient>> groups = new LinkedHashMap<>();
+        for (MitreidClient client: clients) {
+            String clientId = client == null ? null : client.getClientId();
+            groups.computeIfAbsent(clientId, k -> new ArrayList<>()).add(client);
+        }
+        return groups.values();
+    }
+
+    /**
+     * Abort the run when Perun is unreachable, the remaining calls would fail anyway.
+     */
+    private void checkCircuitBreaker(SyncResult res) {
+        if (perunAdapter.isCircuitOpen() && res.abort("Perun is unreachable, circuit breaker is open")) {
+            log.error("Perun is unreachable, aborting synchronization");
         }
-        deleteFacilitiesWithoutClients(presentFacilities, syncResult);
-        return syncResult;
     }
 
     private void processClient(MitreidClient client, Map<String, Facility> presentFacilities, SyncResult res) {
+        checkCircuitBreaker(res);
+        if (res.isAborted()) {
+            return;
+        }
+        SyncItemEvent event = new SyncItemEvent();
+        event.mode = Application.VAL_MODE_TO_PERUN;
+        event.begin();
+        SyncResult itemResult = new SyncResult();
+        try {
+            syncClient(client, presentFacilities, itemResult);
+        } finally {
+            res.add(itemResult);
+            event.finish(client == null ? null : client.getClientId(), itemResult);
+        }
+    }
+
+    private void syncClient(MitreidClient client, Map<String, Facility> presentFacilities, SyncResult res) {
         if (client == null) {
             log.warn("NULL client given, generating error and continue on processing");
             res.incErrors();
@@ -117,7 +207,6 @@ public class ToPerunSynchronizer {
         log.debug("Processing client '{}'", clientId);
         if (!StringUtils.hasText(clientId)) {
             log.debug("ClientID is null, skip to next client for client.id '{}'", client.getId());
-            presentFacilities.remove(clientId);
             return;
         } else if (actionsProperties.getProtectedClientIds().contains(clientId)) {
             presentFacilities.remove(clientId);
@@ -144,7 +233,9 @@ public class ToPerunSynchronizer {
                             client.getClientName(), clientId, withClientId);
                 } else {
                     log.debug("Create facility for client '{}'", clientId);
+                    long writeStart = System.currentTimeMillis();
                     createFacility(client, res);
+                    res.addPhaseDuration(SyncResult.PHASE_WRITE, System.currentTimeMillis() - writeStart);
                 }
             }
         } catch (Exception e) {
@@ -192,10 +283,14 @@ public class ToPerunSynchronizer {
     private boolean deleteFacility(Facility f) {
         try {
             log.debug("Deleting managers group");
-            PerunAttributeValue managersGroupId = perunAdapter.getAttributeValue(f.getId(),
-                    perunAttrNames.getManagersGroupId());
-            if (perunAdapter.deleteGroup(managersGroupId.valueAsInteger().longValue())) {
+            PerunAttributeValue managersGroupId = getFacilityAttributes(f)
+                    .get(perunAttrNames.getManagersGroupId()).toPerunAttributeValue();
+            Long groupId = managersGroupId.valueAsInteger().longValue();
+            if (perunAdapter.deleteGroup(groupId)) {
                 log.debug("Deleted group for managers");
+                if (managersGroups != null) {
+                    managersGroups.remove(groupId);
+                }
             } else {
                 log.debug("Failed to delete group with managers for facility {}", f);
             }
@@ -221,12 +316,23 @@ public class ToPerunSynchronizer {
                 return;
             }
 
-            final Map<String, PerunAttribute> attrs = perunAdapter.getAttributes(
-                    facility.getId(), perunAttrNames.getNames());
+            long fetchStart = System.currentTimeMillis();
+            final Map<String, PerunAttribute> attrs = getFacilityAttributes(facility);
+            long transformStart = System.currentTimeMillis();
+            syncResult.addPhaseDuration(SyncResult.PHASE_FETCH, transformStart - fetchStart);
+            final Map<String, PerunAttribute> newAttrs = new HashMap<>();
+            attrs.forEach((name, attr) -> newAttrs.put(name, attr.copy()));
+            updateFacilityAttrValues(client, newAttrs);
+            final List<PerunAttribute> changedAttrs = getChangedAttributes(attrs, newAttrs);
+            syncResult.addPhaseDuration(SyncResult.PHASE_TRANSFORM, System.currentTimeMillis() - transformStart);
+            if (changedAttrs.isEmpty()) {
+                log.debug("Facility '{}' for client '{}({})' is up to date", facility,
+                        client.getClientName(), client.getClientId());
+                syncResult.incUnchanged();
+                updateFindOrCreateManagersGroup(facility, client, newAttrs.get(perunAttrNames.getManagersGroupId()));
+                return;
+            }
             if (interactiveMode) {
-                Map<String, PerunAttribute> newAttrs = perunAdapter.getAttributes(
-                        facility.getId(), perunAttrNames.getNames());
-                updateFacilityAttrValues(client, newAttrs);
                 final List<PerunAttributeValue> oldList = attrs.values().stream()
                         .map(PerunAttribute::toPerunAttributeValue)
                         .filter(Objects::nonNull)
@@ -248,11 +354,20 @@ public class ToPerunSynchronizer {
                     }
                 }
             }
-            updateFacilityAttrValues(client, attrs);
-            if (perunAdapter.setAttributes(facility.getId(), new ArrayList<>(attrs.values()))) {
+            // only the changed attributes are sent
+            long writeStart = System.currentTimeMillis();
+            boolean attributesSet = perunAdapter.setAttributes(facility.getId(), changedAttrs);
+            syncResult.addPhaseDuration(SyncResult.PHASE_WRITE, System.currentTimeMillis() - writeStart);
+            if (attributesSet) {
                 log.info("Updated facility for client '{}({})'", client.getClientName(), client.getClientId());
+                if (log.isDebugEnabled()) {
+                    log.debug("Changed attributes of facility '{}': {}", facility, changedAttrs.stream()
+                            .map(PerunAttribute::getUrn)
+                            .collect(Collectors.joining(", ")));
+                }
                 syncResult.incUpdated();
-                updateFindOrCreateManagersGroup(facility, client);
+                changedAttrs.forEach(attr -> syncResult.incChangedAttribute(attr.getUrn()));
+                updateFindOrCreateManagersGroup(facility, client, newAttrs.get(perunAttrNames.getManagersGroupId()));
             } else {
                 log.info("Updating facility for client '{}({})' has failed",
                         client.getClientName(), client.getClientId());
@@ -265,13 +380,42 @@ public class ToPerunSynchronizer {
         }
     }
 
+    List<PerunAttribute> getChangedAttributes(Map<String, PerunAttribute> oldAttrs,
+                                              Map<String, PerunAttribute> newAttrs)
+    {
+        List<PerunAttribute> changed = new ArrayList<>();
+        for (Map.Entry<String, PerunAttribute> newAttr: newAttrs.entrySet()) {
+            PerunAttribute oldAttr = oldAttrs.get(newAttr.getKey());
+            if (oldAttr == null || !valueEquals(oldAttr.valueAsJson(), newAttr.getValue().valueAsJson())) {
+                changed.add(newAttr.getValue());
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Compares values the same way as the diff does - arrays as sorted lists of texts, maps key to key by texts.
+     */
+    boolean valueEquals(JsonNode oldValue, JsonNode newValue) {
+        if (Objects.equals(oldValue, newValue)) {
+            return true;
+        } else if (oldValue == null || newValue == null || oldValue.isNull() || newValue.isNull()) {
+            return false;
+        } else if (oldValue.isArray() && newValue.isArray()) {
+            return !StringUtils.hasText(compareLists(oldValue, newValue));
+        } else if (oldValue.isObject() && newValue.isObject()) {
+            return !StringUtils.hasText(compareMaps(oldValue, newValue));
+        }
+        return false;
+    }
+
     private String checkUpdateChanges(List<PerunAttributeValue> oldList, List<PerunAttributeValue> newList) {
         boolean changed = false;
         StringBuilder diff = new StringBuilder(SPACER);
         for (int i = 0; i < oldList.size(); i++) {
             PerunAttributeValue oldAttr = oldList.get(i);
             PerunAttributeValue newAttr = newList.get(i);
-            if (!Objects.equals(oldAttr.getValue(), newAttr.getValue())) {
+            if (!valueEquals(oldAttr.getValue(), newAttr.getValue())) {
                 changed = true;
                 JsonNode oldValue = oldAttr.getValue();
                 JsonNode newValue = newAttr.getValue();
@@ -283,24 +427,12 @@ public class ToPerunSynchronizer {
                     diff.append(String.format("    added: '%s'\n", newValue));
                 } else if (newValue.isNull()) {
                     diff.append(String.format("    removed: '%s'\n", oldValue));
-                } else if (oldValue.isValueNode()) {
-                    diff.append(String.format("    changed: '%s' to: '%s'\n", oldValue, newValue));
-                } else if (oldValue.isArray()){
-                    String res = compareLists(oldValue, newValue);
-                    if (StringUtils.hasText(res)) {
-                        diff.append(res);
-                    } else {
-                        // if we are here, the sorted compare proved that no change has happened
-                        changed = false;
-                    }
+                } else if (oldValue.isArray() && newValue.isArray()) {
+                    diff.append(compareLists(oldValue, newValue));
+                } else if (oldValue.isObject() && newValue.isObject()) {
+                    diff.append(compareMaps(oldValue, newValue));
                 } else {
-                    String res = compareMaps(oldValue, newValue);
-                    if (StringUtils.hasText(res)) {
-                        diff.append(res);
-                    } else {
-                        // if we are here, the key to key and value compare proved that no change has happened
-                        changed = false;
-                    }
+                    diff.append(String.format("    changed: '%s' to: '%s'\n", oldValue, newValue));
                 }
             }
         }
@@ -405,23 +537,44 @@ public class ToPerunSynchronizer {
         }
     }
 
-    private void updateFindOrCreateManagersGroup(Facility facility, MitreidClient client)
+    private void updateFindOrCreateManagersGroup(Facility facility,
+                                                 MitreidClient client,
+                                                 PerunAttribute managersGroupId)
             throws PerunUnknownException, PerunConnectionException
     {
-        PerunAttribute managersGroupId = perunAdapter.getAttribute(facility.getId(),
-                perunAttrNames.getManagersGroupId());
+        if (managersGroupId == null) {
+            managersGroupId = perunAdapter.getAttribute(facility.getId(), perunAttrNames.getManagersGroupId());
+        }
         if (managersGroupId.valueAsInteger() == null) {
+            Long groupId = findOrCreateManagersGroup(facility, client);
+            managersGroupId.setValue(managersGroupId.getType(), getNumericNode(groupId.intValue()));
+            perunAdapter.setAttributes(facility.getId(), Collections.singletonList(managersGroupId));
+        }
+    }
+
+    private Long findOrCreateManagersGroup(Facility facility, MitreidClient client)
+            throws PerunUnknownException, PerunConnectionException
+    {
+        // facilities processed by different workers might resolve to the same group name
+        synchronized (managersGroupLock) {
             Group foundG = null;
-            try {
-                foundG = perunAdapter.getGroupByName(confProperties.getManagersGroupVoId(),
-                        confProperties.getManagersGroupParentGroupName() + ':' + facility.getName());
+            String facilityGroupName = confProperties.getManagersGroupParentGroupName() + ':' + facility.getName();
+            String clientGroupName = confProperties.getManagersGroupParentGroupName() + ':'
+                    + normalizeClientName(client.getClientName());
+            if (managersGroups != null) {
+                foundG = managersGroups.getByName(facilityGroupName);
                 if (foundG == null) {
-                    foundG = perunAdapter.getGroupByName(confProperties.getManagersGroupVoId(),
-                            confProperties.getManagersGroupParentGroupName() + ':'
-                                    + normalizeClientName(client.getClientName()));
+                    foundG = managersGroups.getByName(clientGroupName);
+                }
+            } else {
+                try {
+                    foundG = perunAdapter.getGroupByName(confProperties.getManagersGroupVoId(), facilityGroupName);
+                    if (foundG == null) {
+                        foundG = perunAdapter.getGroupByName(confProperties.getManagersGroupVoId(), clientGroupName);
+                    }
+                } catch (Exception ignored) {
+                    //OKAY
                 }
-            } catch (Exception ignored) {
-                //OKAY
             }
             Long groupId;
             if (foundG == null) {
@@ -434,19 +587,18 @@ public class ToPerunSynchronizer {
                     //OKAY
                 }
             }
-            managersGroupId.setValue(managersGroupId.getType(), getNumericNode(groupId.intValue()));
-            perunAdapter.setAttributes(facility.getId(), Collections.singletonList(managersGroupId));
+            return groupId;
         }
     }
 
     private Map<String, Facility> fillPresentFacilities() {
         log.info("Fetching facilities from Perun");
         try {
-            Map<String, Facility> presentFacilities = new HashMap<>();
-            Set<Facility> facilities = new HashSet<>(perunAdapter.getFacilitiesByAttribute(
-                    proxyIdentifier, confProperties.getProxyIdentifierValue()));
-            for (Facility f : facilities) {
-                PerunAttribute clientId = perunAdapter.getAttribute(f.getId(), perunAttrNames.getClientId());
+            Map<String, Facility> presentFacilities = new ConcurrentHashMap<>();
+            Set<RichFacility> facilities = new HashSet<>(perunAdapter.getFacilitiesByAttributeWithAttributes(
+                    proxyIdentifier, confProperties.getProxyIdentifierValue(), perunAttrNames.getNames()));
+            for (RichFacility f : facilities) {
+                PerunAttribute clientId = f.getAttributes().get(perunAttrNames.getClientId());
                 if (clientId == null || !StringUtils.hasText(clientId.valueAsString())) {
                     continue;
                 }
@@ -460,6 +612,19 @@ public class ToPerunSynchronizer {
         }
     }
 
+    private Map<String, PerunAttribute> getFacilityAttributes(Facility facility)
+            throws PerunUnknownException, PerunConnectionException
+    {
+        if (facility instanceof RichFacility) {
+            Map<String, PerunAttribute> prefetched = ((RichFacility) facility).getAttributes();
+            if (prefetched.keySet().containsAll(perunAttrNames.getNames())) {
+                log.debug("Using attributes fetched together with facility '{}'", facility);
+                return prefetched;
+            }
+        }
+        return perunAdapter.getAttributes(facility.getId(), perunAttrNames.getNames());
+    }
+
     private void createFacility(MitreidClient client, SyncResult syncResult)
     {
         if (!actionsProperties.getToPerun().isCreate()) {
@@ -474,8 +639,8 @@ public class ToPerunSynchronizer {
                 log.warn("Failed creating facility for client '{}({})'", client.getClientName(), client.getClientId());
                 return;
             }
-            final Map<String, PerunAttribute> attrs = perunAdapter.getAttributes(
-                    f.getId(), perunAttrNames.getNames());
+            // the facility is new, its attributes can be built from the definitions
+            final Map<String, PerunAttribute> attrs = perunAdapter.getAttributeDefinitions(perunAttrNames.getNames());
             updateFacilityAttrValues(client, attrs, true);
             if (interactiveMode) {
                 System.out.println("A new facility will be created with following attributes");
@@ -495,7 +660,7 @@ public class ToPerunSynchronizer {
                 log.info("Created facility '{}' for client '{}({})'", f, client.getClientName(), client.getClientId());
                 syncResult.incCreated();
                 log.debug("Creating managers group for facility '{}'", f);
-                updateFindOrCreateManagersGroup(f, client);
+                updateFindOrCreateManagersGroup(f, client, attrs.get(perunAttrNames.getManagersGroupId()));
             } else {
                 log.info("Did not create facility for facility '{}'", f);
                 syncResult.incErrors();
@@ -514,6 +679,9 @@ public class ToPerunSynchronizer {
             confProperties.getManagersGroupParentGroupId(),
             confProperties.getManagersGroupVoId());
         adminsGroup = perunAdapter.createGroup(adminsGroup.getParentGroupId(), adminsGroup);
+        if (managersGroups != null) {
+            managersGroups.add(adminsGroup);
+        }
         log.debug("Add group as manager");
         perunAdapter.addGroupAsAdmins(f.getId(), adminsGroup.getId());
         return adminsGroup.getId();
@@ -1,5 +1,7 @@
 package cz.muni.ics.oidc;
 
+import lombok.extern.slf4j.Slf4j;
+
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
@@ -8,9 +10,19 @@ import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
+@Slf4j
 public class Utils {
 
     public static String decrypt(String strToDecrypt, Cipher cipher, SecretKeySpec secretKeySpec)
@@ -21,8 +33,11 @@ public class Utils {
         }
 
         Base64.Decoder b64dec = Base64.getUrlDecoder();
-        cipher.init(Cipher.DECRYPT_MODE, secretKeySpec);
-        return new String(cipher.doFinal(b64dec.decode(strToDecrypt)));
+        // cipher is shared by the sync workers and is not thread-safe
+        synchronized (cipher) {
+            cipher.init(Cipher.DECRYPT_MODE, secretKeySpec);
+            return new String(cipher.doFinal(b64dec.decode(strToDecrypt)));
+        }
     }
 
     public static String encrypt(String strToEncrypt, Cipher cipher, SecretKeySpec secretKeySpec)
@@ -32,8 +47,61 @@ public class Utils {
             return null;
         }
         Base64.Encoder b64enc = Base64.getUrlEncoder();
-        cipher.init(Cipher.ENCRYPT_MODE, secretKeySpec);
-        return b64enc.encodeToString(cipher.doFinal(strToEncrypt.getBytes(StandardCharsets.UTF_8)));
+        synchronized (cipher) {
+            cipher.init(Cipher.ENCRYPT_MODE, secretKeySpec);
+            return b64enc.encodeToString(cipher.doFinal(strToEncrypt.getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+    /**
+     * Run the action for each of the items using a pool of given number of worker threads. Blocks until all the items
+     * have been processed. With a single worker, items are processed sequentially in the calling thread.
+     * An item whose action throws is logged and counted, the other items are processed anyway.
+     * @param items Items to be processed.
+     * @param workers Maximal number of items processed concurrently.
+     * @param threadNamePrefix Prefix of the worker thread names.
+     * @param action Action to be run for each item. Should handle its exceptions on its own.
+     * @return Number of the items whose action has thrown an exception.
+     */
+    public static <T> int processInParallel(Collection<T> items, int workers, String threadNamePrefix,
+                                            Consumer<T> action)
+    {
+        int failed = 0;
+        if (workers <= 1 || items.size() <= 1) {
+            for (T item: items) {
+                try {
+                    action.accept(item);
+                } catch (RuntimeException e) {
+                    log.warn("Caught unhandled exception when processing item", e);
+                    failed++;
+                }
+            }
+            return failed;
+        }
+
+        AtomicInteger threadCounter = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(workers, items.size()),
+                r -> new Thread(r, threadNamePrefix + '-' + threadCounter.incrementAndGet()));
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (T item: items) {
+                futures.add(executor.submit(() -> action.accept(item)));
+            }
+            for (Future<?> future: futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    log.warn("Caught unhandled exception in worker", e.getCause());
+                    failed++;
+                }
+            }
+            return failed;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for workers to finish", e);
+        } finally {
+            executor.shutdownNow();
+        }
     }
 
     public static SecretKeySpec generateSecretKeySpec(String secret) throws NoSuchAlgorithmException {
@@ -0,0 +1,239 @@
+package cz.muni.ics.oidc.data;
+
+import cz.muni.ics.oidc.models.MitreidClient;
+import cz.muni.ics.oidc.models.SyncResult;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+/**
+ * Writes the created and updated clients to the database in chunks, each chunk in a single transaction. When
+ * a chunk fails, its clients are written one by one, so a single broken client does not fail the others.
+ * Each client is counted to the result of its synchronized item once it is committed (or has failed), then the
+ * callback of the write is called, so the outcome of the item can be reported.
+ * <p>
+ * Clients are split into lanes by the hash of their client_id. Each lane has its own writer thread (and so its own
+ * connection), the lanes are written concurrently while the threads adding the clients go on. The chunks of a single
+ * lane are written one after another in the order the clients have been added, so the writes of a client are never
+ * reordered. The writer has to be closed to stop its threads.
+ */
+@Slf4j
+public class ClientBatchWriter implements AutoCloseable {
+
+    private final ClientRepository clientRepository;
+    private final int chunkSize;
+    private final SyncResult result;
+    private final Lane[] lanes;
+
+    /**
+     * @param clientRepository Repository the clients are written through.
+     * @param chunkSize Number of clients written in a single transaction.
+     * @param lanes Number of lanes written concurrently, each by its own thread.
+     * @param result Result of the run the time spent by writing is counted to.
+     */
+    public ClientBatchWriter(@NonNull ClientRepository clientRepository, int chunkSize, int lanes,
+                             @NonNull SyncResult result)
+    {
+        this.clientRepository = clientRepository;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.result = result;
+        this.lanes = new Lane[Math.max(1, lanes)];
+        for (int i = 0; i < this.lanes.length; i++) {
+            String threadName = "client-writer-" + (i + 1);
+            this.lanes[i] = new Lane(Executors.newSingleThreadExecutor(r -> new Thread(r, threadName)));
+        }
+    }
+
+    /**
+     * @param client Client to be created.
+     * @param itemResult Result of the synchronized item the created client or the error is counted to.
+     * @param onWritten Called by the writer thread once the client has been written or its write has failed.
+     */
+    public void create(MitreidClient client, SyncResult itemResult, Runnable onWritten) {
+        add(new PendingWrite(client, true, itemResult, onWritten));
+    }
+
+    /**
+     * @param client Client to be updated.
+     * @param itemResult Result of the synchronized item the updated client or the error is counted to.
+     * @param onWritten Called by the writer thread once the client has been written or its write has failed.
+     */
+    public void update(MitreidClient client, SyncResult itemResult, Runnable onWritten) {
+        add(new PendingWrite(client, false, itemResult, onWritten));
+    }
+
+    /**
+     * Write the clients remaining in the buffers, the lanes are written concurrently. Blocks until all the clients
+     * added so far have been written.
+     */
+    public void flush() {
+        List<Future<?>> writes = new ArrayList<>(lanes.length);
+        for (Lane lane: lanes) {
+            writes.add(lane.flush());
+        }
+        for (Future<?> write: writes) {
+            try {
+                write.get();
+            } catch (ExecutionException e) {
+                log.warn("Caught unhandled exception in client writer", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for clients to be written", e);
+            }
+        }
+    }
+
+    /**
+     * Stop the writer threads, clients not flushed yet are written first.
+     */
+    @Override
+    public void close() {
+        for (Lane lane: lanes) {
+            lane.close();
+        }
+    }
+
+    private void add(PendingWrite write) {
+        String clientId = write.getClient().getClientId();
+        lanes[Math.floorMod(clientId == null ? 0 : clientId.hashCode(), lanes.length)].add(write);
+    }
+
+    private void write(List<PendingWrite> chunk) {
+        long startTime = System.currentTimeMillis();
+        try {
+            clientRepository.saveClients(chunk.stream().map(PendingWrite::getClient).collect(Collectors.toList()));
+            log.debug("Written chunk of {} clients", chunk.size());
+            chunk.forEach(this::countWritten);
+        } catch (RuntimeException e) {
+            if (chunk.size() == 1) {
+                countFailed(chunk.get(0), e);
+            } else {
+                log.warn("Writing chunk of {} clients failed, writing them one by one", chunk.size(), e);
+                chunk.forEach(this::writeSingle);
+            }
+        } finally {
+            result.addPhaseDuration(SyncResult.PHASE_WRITE, System.currentTimeMillis() - startTime);
+        }
+    }
+
+    private void writeSingle(PendingWrite write) {
+        try {
+            clientRepository.saveClient(write.getClient());
+            countWritten(write);
+        } catch (RuntimeException e) {
+            countFailed(write, e);
+        }
+    }
+
+    private void countWritten(PendingWrite write) {
+        if (write.isCreate()) {
+            log.debug("Client '{}' created", write.getClient().getClientId());
+            write.getItemResult().incCreated();
+        } else {
+            log.debug("Client '{}' updated", write.getClient().getClientId());
+            write.getItemResult().incUpdated();
+        }
+        finish(write);
+    }
+
+    private void countFailed(PendingWrite write, RuntimeException e) {
+        log.warn("Caught exception when writing client '{}'", write.getClient().getClientId(), e);
+        write.getItemResult().incErrors();
+        finish(write);
+    }
+
+    // a failing callback must not make the written clients look failed
+    private void finish(PendingWrite write) {
+        try {
+            write.getOnWritten().run();
+        } catch (RuntimeException e) {
+            log.warn("Caught exception when finishing write of client '{}'", write.getClient().getClientId(), e);
+        }
+    }
+
+    private class Lane {
+
+        private final ExecutorService executor;
+        private final List<PendingWrite> pending = new ArrayList<>();
+        // the executor has a single thread, once the last chunk is written all the previous ones are written too
+        private Future<?> lastChunk = CompletableFuture.completedFuture(null);
+
+        Lane(ExecutorService executor) {
+            this.executor = executor;
+        }
+
+        synchronized void add(PendingWrite write) {
+            pending.add(write);
+            if (pending.size() >= chunkSize) {
+                submit();
+            }
+        }
+
+        /**
+         * @return Future of the write of the last chunk of the lane.
+         */
+        synchronized Future<?> flush() {
+            submit();
+            return lastChunk;
+        }
+
+        synchronized void close() {
+            submit();
+            executor.shutdown();
+        }
+
+        /**
+         * Hand the clients waiting in the lane over to the writer thread.
+         */
+        private void submit() {
+            if (pending.isEmpty()) {
+                return;
+            }
+            List<PendingWrite> chunk = new ArrayList<>(pending);
+            pending.clear();
+            lastChunk = executor.submit(() -> write(chunk));
+        }
+
+    }
+
+    private static class PendingWrite {
+
+        private final MitreidClient client;
+        private final boolean create;
+        private final SyncResult itemResult;
+        private final Runnable onWritten;
+
+        PendingWrite(MitreidClient client, boolean create, SyncResult itemResult, Runnable onWritten) {
+            this.client = client;
+            this.create = create;
+            this.itemResult = itemResult;
+            this.onWritten = onWritten;
+        }
+
+        MitreidClient getClient() {
+            return client;
+        }
+
+        boolean isCreate() {
+            return create;
+        }
+
+        SyncResult getItemResult() {
+            return itemResult;
+        }
+
+        Runnable getOnWritten() {
+            return onWritten;
+        }
+
+    }
+
+}
@@ -4,6 +4,8 @@ import cz.muni.ics.oidc.models.MitreidClient;
 import lombok.AllArgsConstructor;
 import lombok.NoArgsConstructor;
 import lombok.NonNull;
+import org.eclipse.persistence.annotations.BatchFetchType;
+import org.eclipse.persistence.config.QueryHints;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -20,20 +22,44 @@ import java.util.Set;
 @AllArgsConstructor
 public class ClientRepository {
 
+    // element collections of the client
+    private static final String[] COLLECTIONS = {
+            "redirectUris", "contacts", "scope", "grantTypes", "responseTypes", "defaultACRvalues",
+            "postLogoutRedirectUris", "requestUris", "authorities", "resourceIds", "claimsRedirectUris"
+    };
+
     @PersistenceContext(unitName = "defaultPersistenceUnit")
     @NonNull
     private EntityManager manager;
 
     @Transactional
     public void saveClient(MitreidClient client) {
+        ClientWriteEvent event = beginWrite();
         this.saveOrUpdate(manager, client);
+        endWrite(event, "save", client.getClientId(), 1);
+    }
+
+    /**
+     * Save the clients in a single transaction, the changes are flushed at once.
+     */
+    @Transactional
+    public void saveClients(List<MitreidClient> clients) {
+        ClientWriteEvent event = beginWrite();
+        for (MitreidClient client: clients) {
+            manager.merge(client);
+        }
+        manager.flush();
+        endWrite(event, "saveChunk", null, clients.size());
     }
 
     @Transactional
     public void deleteClient(MitreidClient client) {
+        ClientWriteEvent event = beginWrite();
         MitreidClient found = this.getById(client.getId());
         if (found != null) {
             manager.remove(found);
+            manager.flush();
+            endWrite(event, "delete", found.getClientId(), 1);
         } else {
             throw new IllegalArgumentException("Client not found: " + client);
         }
@@ -41,8 +67,10 @@ public class ClientRepository {
 
     @Transactional
     public void updateClient(Long id, MitreidClient client) {
+        ClientWriteEvent event = beginWrite();
         client.setId(id);
         this.saveOrUpdate(manager, client);
+        endWrite(event, "update", client.getClientId(), 1);
     }
 
     public MitreidClient getById(Long id) {
@@ -61,8 +89,13 @@ public class ClientRepository {
         return new HashSet<>(q.getResultList());
     }
 
+    /**
+     * Load all clients including their element collections. Each collection is fetched by a single query joined
+     * with the query of the clients, so the number of queries does not depend on the number of clients.
+     */
     public List<MitreidClient> getAll() {
         TypedQuery<MitreidClient> q = manager.createNamedQuery(MitreidClient.QUERY_ALL, MitreidClient.class);
+        batchFetchCollections(q);
         return q.getResultList();
     }
 
@@ -70,11 +103,21 @@ public class ClientRepository {
     public int deleteByClientIds(Set<String> clientIds) {
         Query q = manager.createNamedQuery(MitreidClient.DELETE_BY_CLIENT_IDS);
         q.setParameter(MitreidClient.PARAM_CLIENT_ID_SET, clientIds);
-        return q.executeUpdate();
+        ClientWriteEvent event = beginWrite();
+        int rows = q.executeUpdate();
+        endWrite(event, "deleteByClientIds", null, rows);
+        return rows;
     }
 
     // private
 
+    private void batchFetchCollections(TypedQuery<MitreidClient> query) {
+        query.setHint(QueryHints.BATCH_TYPE, BatchFetchType.JOIN.name());
+        for (String collection: COLLECTIONS) {
+            query.setHint(QueryHints.BATCH, "c." + collection);
+        }
+    }
+
     private MitreidClient getSingleResult(List<MitreidClient> list) {
         switch(list.size()) {
             case 0:
@@ -86,6 +129,22 @@ public class ClientRepository {
         }
     }
 
+    private ClientWriteEvent beginWrite() {
+        ClientWriteEvent event = new ClientWriteEvent();
+        event.begin();
+        return event;
+    }
+
+    private void endWrite(ClientWriteEvent event, String operation, String clientId, int rows) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.clientId = clientId;
+            event.rows = rows;
+            event.commit();
+        }
+    }
+
     private void saveOrUpdate(EntityManager entityManager, MitreidClient entity) {
         entityManager.merge(entity);
         entityManager.flush();
@@ -0,0 +1,27 @@
+package cz.muni.ics.oidc.data;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event of a write of the clients to the OIDC database.
+ */
+@Name("cz.muni.ics.oidc.ClientWrite")
+@Label("Client Write")
+@Category({"SP Registry Sync", "Database"})
+@Description("Write of the clients to the OIDC database")
+class ClientWriteEvent extends Event {
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Client ID")
+    String clientId;
+
+    @Label("Rows")
+    int rows;
+
+}
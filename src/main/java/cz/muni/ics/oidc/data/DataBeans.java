@@ -3,6 +3,9 @@ package cz.muni.ics.oidc.data;
 import com.zaxxer.hikari.HikariDataSource;
 import cz.muni.ics.oidc.props.JdbcProperties;
 import lombok.NonNull;
+import org.eclipse.persistence.config.BatchWriting;
+import org.eclipse.persistence.config.PersistenceUnitProperties;
+import org.eclipse.persistence.jpa.JpaEntityManagerFactory;
 import org.eclipse.persistence.jpa.PersistenceProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
@@ -14,7 +17,8 @@ import org.springframework.orm.jpa.vendor.EclipseLinkJpaVendorAdapter;
 
 import javax.persistence.EntityManagerFactory;
 import javax.sql.DataSource;
-import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 @Configuration
 public class DataBeans {
@@ -27,7 +31,18 @@ public class DataBeans {
         ds.setJdbcUrl(jdbcProperties.getUrl());
         ds.setUsername(jdbcProperties.getUsername());
         ds.setPassword(jdbcProperties.getPassword());
-        ds.setMaximumPoolSize(1);
+        ds.setMaximumPoolSize(jdbcProperties.getPoolSize());
+        ds.setConnectionTimeout(jdbcProperties.getConnectionTimeout());
+        if (jdbcProperties.getPreparedStatementCacheSize() > 0) {
+            if (JdbcProperties.PLATFORM_PSQL.equals(jdbcProperties.getPlatform())) {
+                ds.addDataSourceProperty("preparedStatementCacheQueries",
+                        jdbcProperties.getPreparedStatementCacheSize());
+            } else {
+                ds.addDataSourceProperty("cachePrepStmts", true);
+                ds.addDataSourceProperty("prepStmtCacheSize", jdbcProperties.getPreparedStatementCacheSize());
+            }
+        }
+        jdbcProperties.getDataSourceProperties().forEach(ds::addDataSourceProperty);
         return ds;
     }
 
@@ -51,16 +66,35 @@ public class DataBeans {
 
     @Bean
     @Autowired
-    public LocalContainerEntityManagerFactoryBean entityManagerFactory(DataSource dataSource, JpaVendorAdapter jpaAdapter) {
+    public LocalContainerEntityManagerFactoryBean entityManagerFactory(DataSource dataSource,
+                                                                       JpaVendorAdapter jpaAdapter,
+                                                                       @NonNull JdbcProperties jdbcProperties)
+    {
         LocalContainerEntityManagerFactoryBean bean = new LocalContainerEntityManagerFactoryBean();
         bean.setPersistenceProviderClass(PersistenceProvider.class);
         bean.setPackagesToScan("cz.muni.ics.oidc");
         bean.setDataSource(dataSource);
         bean.setJpaVendorAdapter(jpaAdapter);
         bean.setPersistenceUnitName("defaultPersistenceUnit");
-        bean.setJpaPropertyMap(Collections.singletonMap("eclipselink.weaving", "false"));
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(PersistenceUnitProperties.WEAVING, "false");
+        if (jdbcProperties.getBatchWritingSize() > 0) {
+            properties.put(PersistenceUnitProperties.BATCH_WRITING, BatchWriting.JDBC);
+            properties.put(PersistenceUnitProperties.BATCH_WRITING_SIZE,
+                    String.valueOf(jdbcProperties.getBatchWritingSize()));
+        }
+        bean.setJpaPropertyMap(properties);
         return bean;
 
     }
 
+    @Bean
+    @Autowired
+    public DbStatementCounter dbStatementCounter(EntityManagerFactory entityManagerFactory) {
+        DbStatementCounter counter = new DbStatementCounter();
+        entityManagerFactory.unwrap(JpaEntityManagerFactory.class).getServerSession()
+                .getEventManager().addListener(counter);
+        return counter;
+    }
+
 }
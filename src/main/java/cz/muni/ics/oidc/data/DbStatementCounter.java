@@ -0,0 +1,45 @@
+package cz.muni.ics.oidc.data;
+
+import org.eclipse.persistence.internal.databaseaccess.DatasourceCall;
+import org.eclipse.persistence.queries.DatabaseQuery;
+import org.eclipse.persistence.sessions.SessionEvent;
+import org.eclipse.persistence.sessions.SessionEventAdapter;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the SQL statements executed by EclipseLink, separately the reads and the modifications.
+ */
+public class DbStatementCounter extends SessionEventAdapter {
+
+    private final AtomicLong reads = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+
+    @Override
+    public void postExecuteCall(SessionEvent event) {
+        // the event of the executed call does not carry the query, the call does
+        DatabaseQuery query = event.getQuery();
+        if (query == null && event.getCall() instanceof DatasourceCall) {
+            query = ((DatasourceCall) event.getCall()).getQuery();
+        }
+        if (query != null && query.isReadQuery()) {
+            reads.incrementAndGet();
+        } else {
+            writes.incrementAndGet();
+        }
+    }
+
+    public long getReads() {
+        return reads.get();
+    }
+
+    public long getWrites() {
+        return writes.get();
+    }
+
+    public void reset() {
+        reads.set(0);
+        writes.set(0);
+    }
+
+}
@@ -0,0 +1,25 @@
+package cz.muni.ics.oidc.exception;
+
+/**
+ * Represents a call to Perun that has not been made, because the circuit breaker is open after previous calls
+ * failed due to connection problems.
+ */
+public class PerunCircuitOpenException extends PerunConnectionException {
+
+    public PerunCircuitOpenException() {
+        super();
+    }
+
+    public PerunCircuitOpenException(String s) {
+        super(s);
+    }
+
+    public PerunCircuitOpenException(String s, Throwable throwable) {
+        super(s, throwable);
+    }
+
+    public PerunCircuitOpenException(Throwable throwable) {
+        super(throwable);
+    }
+
+}
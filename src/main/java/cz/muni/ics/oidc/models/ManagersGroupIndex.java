@@ -0,0 +1,49 @@
+package cz.muni.ics.oidc.models;
+
+import lombok.NonNull;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory index of the managers groups (subgroups of the managers parent group) by name and by ID.
+ * Loaded once per run and kept up to date as the groups are created and deleted.
+ */
+public class ManagersGroupIndex {
+
+    private final Map<String, Group> byName = new ConcurrentHashMap<>();
+    private final Map<Long, Group> byId = new ConcurrentHashMap<>();
+
+    public ManagersGroupIndex(@NonNull Collection<Group> groups) {
+        groups.forEach(this::add);
+    }
+
+    public Group getByName(String name) {
+        return name == null ? null : byName.get(name);
+    }
+
+    public Group getById(Long id) {
+        return id == null ? null : byId.get(id);
+    }
+
+    public void add(Group group) {
+        if (group == null) {
+            return;
+        }
+        byName.put(group.getName(), group);
+        byId.put(group.getId(), group);
+    }
+
+    public void remove(Long id) {
+        Group group = id == null ? null : byId.remove(id);
+        if (group != null) {
+            byName.remove(group.getName(), group);
+        }
+    }
+
+    public int size() {
+        return byId.size();
+    }
+
+}
@@ -0,0 +1,48 @@
+package cz.muni.ics.oidc.models;
+
+import lombok.NonNull;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory index of the MitreID clients by client_id. Loaded once per run, read-only afterwards.
+ */
+public class MitreidClientIndex {
+
+    private final Map<String, MitreidClient> byClientId = new HashMap<>();
+    private final Set<String> duplicateClientIds = new HashSet<>();
+
+    public MitreidClientIndex(@NonNull Collection<MitreidClient> clients) {
+        for (MitreidClient client: clients) {
+            if (byClientId.putIfAbsent(client.getClientId(), client) != null) {
+                duplicateClientIds.add(client.getClientId());
+            }
+        }
+    }
+
+    /**
+     * @return Client with the given client_id, NULL if there is none.
+     * @throws IllegalStateException Thrown when there are more clients with the client_id.
+     */
+    public MitreidClient getByClientId(String clientId) {
+        if (duplicateClientIds.contains(clientId)) {
+            throw new IllegalStateException("Expected single result, got multiple clients with client_id "
+                    + clientId);
+        }
+        return byClientId.get(clientId);
+    }
+
+    public Set<String> getClientIds() {
+        return Collections.unmodifiableSet(byClientId.keySet());
+    }
+
+    public int size() {
+        return byClientId.size();
+    }
+
+}
@@ -125,5 +125,13 @@ public class PerunAttribute extends PerunAttributeValueAwareModel {
         return new PerunAttributeValue(this.getUrn(), super.getType(), this.valueAsJson());
     }
 
+    public PerunAttribute copy() {
+        PerunAttribute copy = new PerunAttribute(id, friendlyName, namespace, description, super.getType(),
+                displayName, writable, unique, entity, baseFriendlyName, friendlyNameParameter,
+                this.valueAsJson().deepCopy());
+        copy.setValueCreatedAt(valueCreatedAt);
+        return copy;
+    }
+
 }
 
@@ -0,0 +1,37 @@
+package cz.muni.ics.oidc.models;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+import lombok.ToString;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Facility object model carrying also the facility attributes fetched together with it.
+ */
+@Getter
+@Setter
+@ToString(callSuper = true)
+@EqualsAndHashCode(callSuper = true)
+public class RichFacility extends Facility {
+
+    @NonNull private Map<String, PerunAttribute> attributes = new HashMap<>();
+
+    public RichFacility(Long id, String name, String description, Map<String, PerunAttribute> attributes) {
+        super(id, name, description);
+        this.setAttributes(attributes);
+    }
+
+    public Map<String, PerunAttributeValue> getAttributeValues() {
+        Map<String, PerunAttributeValue> resultMap = new LinkedHashMap<>();
+        attributes.forEach((identifier, attr) -> resultMap.put(identifier, attr == null ?
+                null : attr.toPerunAttributeValue())
+        );
+        return resultMap;
+    }
+
+}
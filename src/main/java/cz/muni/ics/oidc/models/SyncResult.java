@@ -1,35 +1,150 @@
 package cz.muni.ics.oidc.models;
 
-import lombok.EqualsAndHashCode;
-import lombok.Getter;
 import lombok.ToString;
 
-@Getter
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
 @ToString
-@EqualsAndHashCode
 public class SyncResult {
-    int created = 0;
-    int updated = 0;
-    int deleted = 0;
-    int errors = 0;
+
+    // phases of the run, durations are summed over all workers
+    public static final String PHASE_FETCH = "fetch";
+    public static final String PHASE_TRANSFORM = "transform";
+    public static final String PHASE_WRITE = "write";
+    public static final String PHASE_DELETE = "delete";
+
+    private final AtomicInteger created = new AtomicInteger();
+    private final AtomicInteger updated = new AtomicInteger();
+    private final AtomicInteger unchanged = new AtomicInteger();
+    private final AtomicInteger deleted = new AtomicInteger();
+    private final AtomicInteger errors = new AtomicInteger();
+    private final AtomicInteger retries = new AtomicInteger();
+    private final Map<String, AtomicInteger> changedAttributes = new ConcurrentHashMap<>();
+    private final AtomicReference<String> abortReason = new AtomicReference<>();
+    private final Map<String, AtomicLong> phaseDurations = new ConcurrentHashMap<>();
+
+    public int getCreated() {
+        return created.get();
+    }
+
+    public int getUpdated() {
+        return updated.get();
+    }
+
+    public int getUnchanged() {
+        return unchanged.get();
+    }
+
+    public int getDeleted() {
+        return deleted.get();
+    }
+
+    public int getErrors() {
+        return errors.get();
+    }
+
+    public boolean isAborted() {
+        return abortReason.get() != null;
+    }
+
+    /**
+     * @return Reason why the run has been aborted, NULL if it has not been aborted.
+     */
+    public String getAbortReason() {
+        return abortReason.get();
+    }
+
+    public int getRetries() {
+        return retries.get();
+    }
+
+    /**
+     * @return Number of updates that changed the attribute, by attribute URN.
+     */
+    public Map<String, Integer> getChangedAttributes() {
+        Map<String, Integer> result = new TreeMap<>();
+        changedAttributes.forEach((urn, count) -> result.put(urn, count.get()));
+        return result;
+    }
+
+    /**
+     * @return Time in ms spent in the phases of the run, by phase.
+     */
+    public Map<String, Long> getPhaseDurations() {
+        Map<String, Long> result = new TreeMap<>();
+        phaseDurations.forEach((phase, duration) -> result.put(phase, duration.get()));
+        return result;
+    }
 
     public void incCreated() {
-        this.created++;
+        this.created.incrementAndGet();
     }
 
     public void incUpdated() {
-        this.updated++;
+        this.updated.incrementAndGet();
+    }
+
+    public void incUnchanged() {
+        this.unchanged.incrementAndGet();
     }
 
     public void incDeleted() {
-        this.deleted++;
+        this.deleted.incrementAndGet();
     }
 
     public void incDeleted(int amount) {
-        this.deleted += amount;
+        this.deleted.addAndGet(amount);
     }
 
     public void incErrors() {
-        this.errors++;
+        this.errors.incrementAndGet();
+    }
+
+    public void incErrors(int amount) {
+        this.errors.addAndGet(amount);
+    }
+
+    /**
+     * Mark the run as aborted. Only the first reason is kept.
+     * @return TRUE if the run has been aborted by this call.
+     */
+    public boolean abort(String reason) {
+        return this.abortReason.compareAndSet(null, reason);
+    }
+
+    public void addRetries(long amount) {
+        this.retries.addAndGet((int) amount);
+    }
+
+    public void incChangedAttribute(String urn) {
+        this.changedAttributes.computeIfAbsent(urn, k -> new AtomicInteger()).incrementAndGet();
+    }
+
+    /**
+     * Add the counts, changed attributes and phase durations of the other result, keeps its abort reason if this
+     * result has not been aborted.
+     */
+    public void add(SyncResult other) {
+        this.created.addAndGet(other.getCreated());
+        this.updated.addAndGet(other.getUpdated());
+        this.unchanged.addAndGet(other.getUnchanged());
+        this.deleted.addAndGet(other.getDeleted());
+        this.errors.addAndGet(other.getErrors());
+        this.retries.addAndGet(other.getRetries());
+        other.changedAttributes.forEach((urn, count) -> this.changedAttributes
+                .computeIfAbsent(urn, k -> new AtomicInteger()).addAndGet(count.get()));
+        other.phaseDurations.forEach((phase, duration) -> addPhaseDuration(phase, duration.get()));
+        if (other.isAborted()) {
+            abort(other.getAbortReason());
+        }
+    }
+
+    public void addPhaseDuration(String phase, long duration) {
+        this.phaseDurations.computeIfAbsent(phase, k -> new AtomicLong()).addAndGet(duration);
     }
 }
@@ -37,6 +37,9 @@ public class ConfProperties {
     @Min(1) private long managersGroupParentGroupId;
     @NotBlank private String managersGroupParentGroupName;
     @Nullable private String probeOutputFileLocation;
+    @Min(1) private int workers = 1;
+    @Nullable private String attributeDefinitionsFileLocation;
+    @Nullable private String metricsOutputDirectory;
 
     @PostConstruct
     public void init() {
@@ -61,6 +64,9 @@ public class ConfProperties {
                 ", managersGroupParentGroupId=" + managersGroupParentGroupId +
                 ", managersGroupParentGroupName='" + managersGroupParentGroupName + '\'' +
                 ", probeOutputFileLocation='" + probeOutputFileLocation + '\'' +
+                ", workers=" + workers +
+                ", attributeDefinitionsFileLocation='" + attributeDefinitionsFileLocation + '\'' +
+                ", metricsOutputDirectory='" + metricsOutputDirectory + '\'' +
                 '}';
     }
 }
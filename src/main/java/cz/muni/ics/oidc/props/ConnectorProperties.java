@@ -13,6 +13,7 @@ import org.springframework.validation.annotation.Validated;
 import javax.annotation.PostConstruct;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.PositiveOrZero;
 
 @Component
 @ConfigurationProperties(prefix = "rpc", ignoreInvalidFields = true)
@@ -32,6 +33,26 @@ public class ConnectorProperties {
     @Min(1) private int socketTimeout = 60000;
     @Min(1) private int maxConnections = 20;
     @Min(1) private int maxConnectionsPerRoute = 18;
+    private boolean responseCompression = true;
+    private boolean requestCompression = false;
+    @Min(0) private int requestCompressionMinSize = 8192;
+    private boolean coalesceReads = true;
+    private boolean readCache = true;
+    @Min(1) private int minConcurrency = 1;
+    @Min(1) private int initialConcurrency = 18;
+    @Min(1) private int maxConcurrency = 18;
+    @Min(1) private long concurrencyLatencyThreshold = 5000;
+    @Min(0) private long concurrencyQueueTimeout = 60000;
+    @Min(0) private int maxRetries = 3;
+    @Min(1) private long retryInitialBackoff = 500;
+    @Min(1) private long retryMaxBackoff = 10000;
+    @Min(1) private long callDeadline = 180000;
+    @Min(1) private int circuitFailureThreshold = 5;
+    @Min(0) private long circuitOpenDuration = 60000;
+    @PositiveOrZero private double readRateLimit = 0;
+    @Min(1) private int readRateBurst = 10;
+    @PositiveOrZero private double writeRateLimit = 0;
+    @Min(1) private int writeRateBurst = 5;
 
     public void setPerunUrl(String perunUrl) {
         if (!StringUtils.hasText(perunUrl)) {
@@ -71,6 +92,26 @@ public class ConnectorProperties {
                 ", socketTimeout=" + socketTimeout +
                 ", maxConnections=" + maxConnections +
                 ", maxConnectionsPerRoute=" + maxConnectionsPerRoute +
+                ", responseCompression=" + responseCompression +
+                ", requestCompression=" + requestCompression +
+                ", requestCompressionMinSize=" + requestCompressionMinSize +
+                ", coalesceReads=" + coalesceReads +
+                ", readCache=" + readCache +
+                ", minConcurrency=" + minConcurrency +
+                ", initialConcurrency=" + initialConcurrency +
+                ", maxConcurrency=" + maxConcurrency +
+                ", concurrencyLatencyThreshold=" + concurrencyLatencyThreshold +
+                ", concurrencyQueueTimeout=" + concurrencyQueueTimeout +
+                ", maxRetries=" + maxRetries +
+                ", retryInitialBackoff=" + retryInitialBackoff +
+                ", retryMaxBackoff=" + retryMaxBackoff +
+                ", callDeadline=" + callDeadline +
+                ", circuitFailureThreshold=" + circuitFailureThreshold +
+                ", circuitOpenDuration=" + circuitOpenDuration +
+                ", readRateLimit=" + readRateLimit +
+                ", readRateBurst=" + readRateBurst +
+                ", writeRateLimit=" + writeRateLimit +
+                ", writeRateBurst=" + writeRateBurst +
                 '}';
     }
 
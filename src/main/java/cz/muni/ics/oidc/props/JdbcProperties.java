@@ -13,7 +13,11 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.validation.annotation.Validated;
 
 import javax.annotation.PostConstruct;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotNull;
+import java.util.HashMap;
+import java.util.Map;
 
 @Getter
 @Setter
@@ -34,12 +38,23 @@ public class JdbcProperties {
     @NotBlank private String url;
     @NotBlank private String username;
     @NotBlank private String password;
+    @Min(1) private int poolSize = 1;
+    @Min(250) private long connectionTimeout = 30000;
+    @Min(0) private int preparedStatementCacheSize = 250;
+    @NotNull private Map<String, String> dataSourceProperties = new HashMap<>();
+    @Min(0) private int batchWritingSize = 100;
+    @Min(1) private int writeChunkSize = 50;
+    @Min(1) private int writers = 1;
 
     @PostConstruct
     public void postInit() {
         if (!platform.equals(PLATFORM_MYSQL) && !platform.equals(PLATFORM_PSQL)) {
             throw new IllegalArgumentException("Unrecognized JDBC platform '" + platform + "'!");
         }
+        if (writers > poolSize) {
+            throw new IllegalArgumentException("Number of writers (" + writers + ") exceeds the pool size ("
+                    + poolSize + ")!");
+        }
 
         log.info("Initialized JDBC properties");
         log.debug("{}", this);
@@ -53,6 +68,13 @@ public class JdbcProperties {
                 ", url='" + url + '\'' +
                 ", username='" + username + '\'' +
                 ", password=[PROTECTED]" +
+                ", poolSize=" + poolSize +
+                ", connectionTimeout=" + connectionTimeout +
+                ", preparedStatementCacheSize=" + preparedStatementCacheSize +
+                ", dataSourceProperties=" + dataSourceProperties +
+                ", batchWritingSize=" + batchWritingSize +
+                ", writeChunkSize=" + writeChunkSize +
+                ", writers=" + writers +
                 '}';
     }
 }
@@ -0,0 +1,222 @@
+package cz.muni.ics.oidc.rpc;
+
+import cz.muni.ics.oidc.exception.PerunConnectionException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the number of concurrent calls to Perun. The limit is adapted by AIMD - it grows by one per limit of calls
+ * answered faster than the latency threshold, and it is cut down on a failed (connection error, timeout, 5xx) or
+ * slow call. The limit starts at the initial limit and stays between the configured bounds. A call waits for a free
+ * slot either blocking its thread ({@link #acquire()}) or without blocking it ({@link #acquireAsync()}).
+ */
+@Slf4j
+public class AdaptiveConcurrencyLimiter {
+
+    private static final double BACKOFF_RATIO = 0.75;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long latencyThreshold;
+    private final long queueTimeout;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition slotReleased = lock.newCondition();
+    private double limit;
+    private int inFlight = 0;
+    // calls waiting for a slot without blocking a thread, served before the blocked ones
+    private final Deque<AsyncWaiter> asyncWaiters = new ArrayDeque<>();
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+    private final AtomicLong totalQueueWait = new AtomicLong();
+    private final AtomicLong maxQueueWait = new AtomicLong();
+
+    /**
+     * @param minLimit Minimal number of concurrent calls, the limit is never cut down below it.
+     * @param initialLimit Number of concurrent calls allowed before the limit is adapted, kept within the bounds.
+     * @param maxLimit Maximal number of concurrent calls.
+     * @param latencyThreshold Calls taking longer (in ms) are considered as a sign of overloaded Perun.
+     * @param queueTimeout How long (in ms) a call waits for a free slot before it is rejected.
+     */
+    public AdaptiveConcurrencyLimiter(int minLimit, int initialLimit, int maxLimit, long latencyThreshold,
+                                      long queueTimeout)
+    {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Limits must satisfy 1 <= min <= max");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencyThreshold = latencyThreshold;
+        this.queueTimeout = queueTimeout;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    /**
+     * Wait for a free slot. Each successful acquire must be followed by {@link #release(long, boolean)}.
+     * @throws PerunConnectionException Thrown when no slot has been freed within the queue timeout.
+     */
+    public void acquire() throws PerunConnectionException {
+        long startTime = System.nanoTime();
+        long remaining = TimeUnit.MILLISECONDS.toNanos(queueTimeout);
+        lock.lock();
+        try {
+            while (inFlight >= (int) limit) {
+                if (remaining <= 0) {
+                    rejections.incrementAndGet();
+                    throw limitReached();
+                }
+                remaining = slotReleased.awaitNanos(remaining);
+            }
+            inFlight++;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PerunConnectionException("Interrupted while waiting for a call to Perun", e);
+        } finally {
+            lock.unlock();
+        }
+        recordAcquired(startTime);
+    }
+
+    /**
+     * Get a free slot without blocking the caller. Each successfully completed acquire must be followed by
+     * {@link #release(long, boolean)}.
+     * @return Future completed once a slot is free. Completes exceptionally with PerunConnectionException when no
+     * slot has been freed within the queue timeout.
+     */
+    public CompletableFuture<Void> acquireAsync() {
+        AsyncWaiter waiter = new AsyncWaiter();
+        lock.lock();
+        try {
+            if (inFlight < (int) limit) {
+                inFlight++;
+            } else if (queueTimeout <= 0) {
+                rejections.incrementAndGet();
+                return CompletableFuture.failedFuture(limitReached());
+            } else {
+                asyncWaiters.add(waiter);
+                CompletableFuture.delayedExecutor(queueTimeout, TimeUnit.MILLISECONDS)
+                        .execute(() -> rejectWaiting(waiter));
+                return waiter.slot;
+            }
+        } finally {
+            lock.unlock();
+        }
+        recordAcquired(waiter.startTime);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    private void rejectWaiting(AsyncWaiter waiter) {
+        boolean waiting;
+        lock.lock();
+        try {
+            waiting = asyncWaiters.remove(waiter);
+        } finally {
+            lock.unlock();
+        }
+        if (waiting) {
+            rejections.incrementAndGet();
+            waiter.slot.completeExceptionally(limitReached());
+        }
+    }
+
+    private PerunConnectionException limitReached() {
+        return new PerunConnectionException("Limit of concurrent calls to Perun (" + getLimit()
+                + ") reached, no call finished within " + queueTimeout + " ms");
+    }
+
+    private void recordAcquired(long startTime) {
+        long queueWait = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        calls.incrementAndGet();
+        totalQueueWait.addAndGet(queueWait);
+        maxQueueWait.accumulateAndGet(queueWait, Math::max);
+    }
+
+    /**
+     * Release the slot and adapt the limit.
+     * @param latency Duration of the call in ms.
+     * @param failed Whether the call failed due to connection error, timeout or server error.
+     */
+    public void release(long latency, boolean failed) {
+        List<AsyncWaiter> admitted = new ArrayList<>();
+        lock.lock();
+        try {
+            inFlight--;
+            if (failed || latency > latencyThreshold) {
+                limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+            } else if (limit < maxLimit) {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+            while (inFlight < (int) limit && !asyncWaiters.isEmpty()) {
+                inFlight++;
+                admitted.add(asyncWaiters.poll());
+            }
+            slotReleased.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        // completed outside of the lock, the waiting calls continue in this thread
+        for (AsyncWaiter waiter: admitted) {
+            recordAcquired(waiter.startTime);
+            waiter.slot.complete(null);
+        }
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getCalls() {
+        return calls.get();
+    }
+
+    public long getRejections() {
+        return rejections.get();
+    }
+
+    public long getTotalQueueWait() {
+        return totalQueueWait.get();
+    }
+
+    public long getMaxQueueWait() {
+        return maxQueueWait.get();
+    }
+
+    public void logStatistics() {
+        long callsCount = calls.get();
+        log.info("Perun concurrency limiter - limit: {} (min {}, max {}), calls: {}, rejections: {}, " +
+                        "queue wait avg: {} ms, max: {} ms", getLimit(), minLimit, maxLimit, callsCount,
+                rejections.get(), callsCount == 0 ? 0 : totalQueueWait.get() / callsCount, maxQueueWait.get());
+    }
+
+    private static class AsyncWaiter {
+
+        private final CompletableFuture<Void> slot = new CompletableFuture<>();
+        private final long startTime = System.nanoTime();
+
+    }
+
+}
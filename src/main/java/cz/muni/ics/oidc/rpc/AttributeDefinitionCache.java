@@ -0,0 +1,132 @@
+package cz.muni.ics.oidc.rpc;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import cz.muni.ics.oidc.models.PerunAttribute;
+import cz.muni.ics.oidc.props.ConfProperties;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of attribute definitions (id, type, namespace...), which are the same for all the facilities. Attributes
+ * for a facility can be built from the definitions locally, without asking Perun for the attributes of the facility.
+ * Definitions are fetched from Perun once per run. If the file is configured, the fetched definitions are persisted
+ * in it and used only when Perun cannot be reached.
+ */
+@Component
+@Slf4j
+public class AttributeDefinitionCache {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Path definitionsFile;
+    // definitions fetched from Perun in this run
+    private final Map<String, PerunAttribute> definitions = new ConcurrentHashMap<>();
+    // definitions persisted by previous runs, loaded only when needed as fallback
+    private final Map<String, PerunAttribute> storedDefinitions = new ConcurrentHashMap<>();
+    private volatile boolean fileLoaded = false;
+
+    @Autowired
+    public AttributeDefinitionCache(@NonNull ConfProperties confProperties) {
+        String location = confProperties.getAttributeDefinitionsFileLocation();
+        this.definitionsFile = StringUtils.hasText(location) ? Paths.get(location) : null;
+    }
+
+    /**
+     * Drop the definitions fetched in the previous run, so they are fetched from Perun again.
+     */
+    public void clear() {
+        definitions.clear();
+        storedDefinitions.clear();
+        fileLoaded = false;
+    }
+
+    /**
+     * Get attributes built from the definitions fetched from Perun in this run.
+     * @return Attributes with empty values, or NULL if any of the definitions has not been fetched yet.
+     */
+    public Map<String, PerunAttribute> getAttributes(@NonNull Collection<String> attrNames) {
+        return buildAttributes(definitions, attrNames);
+    }
+
+    /**
+     * Get attributes built from the definitions persisted in the file by previous runs. Use only when the definitions
+     * cannot be fetched from Perun.
+     * @return Attributes with empty values, or NULL if the file is not configured or any of the definitions is missing.
+     */
+    public Map<String, PerunAttribute> getStoredAttributes(@NonNull Collection<String> attrNames) {
+        loadFile();
+        return buildAttributes(storedDefinitions, attrNames);
+    }
+
+    public void putDefinitions(@NonNull Collection<PerunAttribute> attributes) {
+        attributes.forEach(attribute -> definitions.put(attribute.getUrn(), attribute.copy()));
+        storeFile();
+    }
+
+    private Map<String, PerunAttribute> buildAttributes(Map<String, PerunAttribute> source,
+                                                        Collection<String> attrNames)
+    {
+        if (!source.keySet().containsAll(attrNames)) {
+            return null;
+        }
+        Map<String, PerunAttribute> result = new HashMap<>();
+        for (String attrName: attrNames) {
+            PerunAttribute attribute = source.get(attrName).copy();
+            attribute.setValue(attribute.getType(), null);
+            result.put(attrName, attribute);
+        }
+        return result;
+    }
+
+    private synchronized void loadFile() {
+        if (fileLoaded || definitionsFile == null) {
+            return;
+        }
+        fileLoaded = true;
+        if (!Files.isRegularFile(definitionsFile)) {
+            return;
+        }
+        try {
+            Map<String, PerunAttribute> loaded = Mapper.mapAttributes(objectMapper.readTree(definitionsFile.toFile()));
+            storedDefinitions.putAll(loaded);
+            log.debug("Loaded {} attribute definitions from '{}'", loaded.size(), definitionsFile);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to load attribute definitions from '{}'", definitionsFile, e);
+        }
+    }
+
+    private synchronized void storeFile() {
+        if (definitionsFile == null) {
+            return;
+        }
+        loadFile();
+        // keep the stored definitions not fetched in this run, they may be needed by another mode
+        Map<String, PerunAttribute> toStore = new HashMap<>(storedDefinitions);
+        toStore.putAll(definitions);
+        ArrayNode json = JsonNodeFactory.instance.arrayNode();
+        toStore.values().forEach(attribute -> json.add(attribute.toJson()));
+        try {
+            Path tmp = Files.createTempFile(definitionsFile.toAbsolutePath().getParent(),
+                    definitionsFile.getFileName().toString(), ".tmp");
+            objectMapper.writeValue(tmp.toFile(), json);
+            Files.move(tmp, definitionsFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Failed to store attribute definitions to '{}'", definitionsFile, e);
+        }
+    }
+
+}
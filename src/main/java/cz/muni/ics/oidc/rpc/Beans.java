@@ -6,6 +6,7 @@ import org.apache.http.HeaderElementIterator;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.conn.ConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.message.BasicHeaderElementIterator;
@@ -19,7 +20,9 @@ import org.springframework.http.client.support.BasicAuthenticationInterceptor;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.RestTemplate;
 
-import java.util.Collections;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 
 @Component
@@ -53,19 +56,26 @@ public class Beans {
             return 20000L;
         };
 
-        CloseableHttpClient httpClient = HttpClients.custom()
+        HttpClientBuilder httpClientBuilder = HttpClients.custom()
                 .setDefaultRequestConfig(requestConfig)
                 .setConnectionManager(poolingConnectionManager)
-                .setKeepAliveStrategy(connectionKeepAliveStrategy)
-                .build();
+                .setKeepAliveStrategy(connectionKeepAliveStrategy);
+        if (!connectorProperties.isResponseCompression()) {
+            // otherwise gzip and deflate are accepted and transparently decompressed
+            httpClientBuilder.disableContentCompression();
+        }
+        CloseableHttpClient httpClient = httpClientBuilder.build();
 
         HttpComponentsClientHttpRequestFactory poolingRequestFactory = new HttpComponentsClientHttpRequestFactory();
         poolingRequestFactory.setHttpClient(httpClient);
 
         // basic auth
-        List<ClientHttpRequestInterceptor> interceptors =
-                Collections.singletonList(new BasicAuthenticationInterceptor(connectorProperties.getPerunUser(),
-                        connectorProperties.getPerunPassword()));
+        List<ClientHttpRequestInterceptor> interceptors = new ArrayList<>();
+        interceptors.add(new BasicAuthenticationInterceptor(connectorProperties.getPerunUser(),
+                connectorProperties.getPerunPassword()));
+        if (connectorProperties.isRequestCompression()) {
+            interceptors.add(new GzipRequestInterceptor(connectorProperties.getRequestCompressionMinSize()));
+        }
         InterceptingClientHttpRequestFactory authenticatingRequestFactory =
                 new InterceptingClientHttpRequestFactory(poolingRequestFactory, interceptors);
         RestTemplate restTemplate = new RestTemplate();
@@ -73,4 +83,12 @@ public class Beans {
         return restTemplate;
     }
 
+    @Autowired
+    @Bean
+    public HttpClient asyncHttpClient(ConnectorProperties connectorProperties) {
+        return HttpClient.newBuilder()
+                .connectTimeout(Duration.ofMillis(connectorProperties.getConnectTimeout()))
+                .build();
+    }
+
 }
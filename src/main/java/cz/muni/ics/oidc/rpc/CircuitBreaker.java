@@ -0,0 +1,96 @@
+package cz.muni.ics.oidc.rpc;
+
+import cz.muni.ics.oidc.exception.PerunCircuitOpenException;
+import lombok.extern.slf4j.Slf4j;
+
+import static java.lang.System.currentTimeMillis;
+
+/**
+ * Circuit breaker for calls to Perun. After the configured number of consecutive failed calls (connection error,
+ * timeout, 5xx) the circuit opens and calls fail immediately. When the open duration passes, a single trial call
+ * is let through (half-open) - its success closes the circuit, its failure opens it again.
+ */
+@Slf4j
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openDuration;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private long openedAt = 0;
+    private boolean trialInFlight = false;
+
+    /**
+     * @param failureThreshold Number of consecutive failed calls opening the circuit.
+     * @param openDuration How long (in ms) the circuit stays open before a trial call is allowed.
+     */
+    public CircuitBreaker(int failureThreshold, long openDuration) {
+        this.failureThreshold = failureThreshold;
+        this.openDuration = openDuration;
+    }
+
+    /**
+     * Check that the call can be made. Each successful check must be followed by one of
+     * {@link #onSuccess()}, {@link #onFailure()} or {@link #onCancel()}.
+     * @throws PerunCircuitOpenException Thrown when the circuit is open.
+     */
+    public synchronized void beforeCall() throws PerunCircuitOpenException {
+        if (state == State.OPEN) {
+            if (currentTimeMillis() - openedAt < openDuration) {
+                throw new PerunCircuitOpenException("Circuit breaker is open after " + consecutiveFailures
+                        + " consecutive failed calls to Perun");
+            }
+            log.info("Circuit breaker is half-open, trying a call to Perun");
+            state = State.HALF_OPEN;
+            trialInFlight = false;
+        }
+        if (state == State.HALF_OPEN) {
+            if (trialInFlight) {
+                throw new PerunCircuitOpenException("Circuit breaker is half-open, waiting for the trial call");
+            }
+            trialInFlight = true;
+        }
+    }
+
+    public synchronized void onSuccess() {
+        if (state != State.CLOSED) {
+            log.info("Circuit breaker closed, Perun is reachable again");
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        trialInFlight = false;
+    }
+
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            log.warn("Circuit breaker opened after {} consecutive failed calls to Perun", consecutiveFailures);
+            state = State.OPEN;
+            openedAt = currentTimeMillis();
+        }
+        trialInFlight = false;
+    }
+
+    /**
+     * The call allowed by {@link #beforeCall()} has not been made at all.
+     */
+    public synchronized void onCancel() {
+        trialInFlight = false;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public boolean isOpen() {
+        return getState() == State.OPEN;
+    }
+
+}
@@ -0,0 +1,51 @@
+package cz.muni.ics.oidc.rpc;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses request bodies larger than the configured threshold by gzip. In practice this affects
+ * setAttributes calls, other calls to Perun carry only a few parameters.
+ */
+@Slf4j
+public class GzipRequestInterceptor implements ClientHttpRequestInterceptor {
+
+    public static final String GZIP = "gzip";
+
+    private final int minSize;
+
+    public GzipRequestInterceptor(int minSize) {
+        this.minSize = minSize;
+    }
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution)
+            throws IOException
+    {
+        if (body.length < minSize) {
+            return execution.execute(request, body);
+        }
+        byte[] compressed = gzip(body);
+        log.trace("Compressed request body of {} from {} to {} bytes", request.getURI(), body.length,
+                compressed.length);
+        request.getHeaders().set(HttpHeaders.CONTENT_ENCODING, GZIP);
+        return execution.execute(request, compressed);
+    }
+
+    public static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(body);
+        }
+        return out.toByteArray();
+    }
+
+}
@@ -1,11 +1,16 @@
 package cz.muni.ics.oidc.rpc;
 
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import cz.muni.ics.oidc.models.Facility;
 import cz.muni.ics.oidc.models.Group;
 import cz.muni.ics.oidc.models.PerunAttribute;
+import cz.muni.ics.oidc.models.RichFacility;
 import lombok.NonNull;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -56,6 +61,47 @@ public class Mapper {
         return result;
     }
 
+    /**
+     * Maps JsonNode to RichFacility model.
+     * @param json RichFacility in JSON format from Perun to be mapped.
+     * @return Mapped RichFacility object.
+     */
+    public static RichFacility mapRichFacility(@NonNull JsonNode json) {
+        if (json.isNull()) {
+            return null;
+        }
+
+        Long id = json.get("id").asLong();
+        String name = json.get("name").asText();
+        String description = json.get("description").asText();
+        Map<String, PerunAttribute> attributes = new HashMap<>();
+        if (json.hasNonNull("facilityAttributes")) {
+            attributes = Mapper.mapAttributes(json.get("facilityAttributes"));
+        }
+
+        return new RichFacility(id, name, description, attributes);
+    }
+
+    /**
+     * Maps JsonNode to List of RichFacilities.
+     * @param jsonArray JSON array of rich facilities in JSON format from Perun to be mapped.
+     * @return List of rich facilities.
+     */
+    public static List<RichFacility> mapRichFacilities(@NonNull JsonNode jsonArray) {
+        if (jsonArray.isNull()) {
+            return new ArrayList<>();
+        }
+
+        List<RichFacility> result = new ArrayList<>();
+        for (int i = 0; i < jsonArray.size(); i++) {
+            JsonNode facilityNode = jsonArray.get(i);
+            RichFacility mappedFacility = Mapper.mapRichFacility(facilityNode);
+            result.add(mappedFacility);
+        }
+
+        return result;
+    }
+
     /**
      * Maps JsonNode to PerunAttribute model.
      * @param json PerunAttribute in JSON format from Perun to be mapped.
@@ -109,6 +155,119 @@ public class Mapper {
         return mappedAttrs;
     }
 
+    /**
+     * Maps stream of JSON tokens to List of RichFacilities. Fields not used by the models are skipped,
+     * see {@link #mapAttributes(JsonParser)}.
+     * @param parser Parser positioned at the start of JSON array of rich facilities from Perun.
+     * @return List of rich facilities.
+     */
+    public static List<RichFacility> mapRichFacilities(@NonNull JsonParser parser) throws IOException {
+        List<RichFacility> result = new ArrayList<>();
+        if (!isArrayStart(parser)) {
+            return result;
+        }
+
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            Long id = null;
+            String name = null;
+            String description = null;
+            Map<String, PerunAttribute> attributes = new HashMap<>();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                switch (field) {
+                    case "id": id = parser.getLongValue(); break;
+                    case "name": name = asText(parser); break;
+                    case "description": description = asText(parser); break;
+                    case "facilityAttributes": attributes = Mapper.mapAttributes(parser); break;
+                    default: parser.skipChildren();
+                }
+            }
+            result.add(new RichFacility(id, name, description, attributes));
+        }
+
+        return result;
+    }
+
+    /**
+     * Maps stream of JSON tokens to Map<String, PerunAttribute>.
+     * Keys are the internal identifiers of the attributes.
+     * Values are attributes corresponding to the names.
+     * The audit fields of the attributes are skipped. Text fields are mapped the same way as by
+     * {@link #mapAttributes(JsonNode)}, JSON null becomes "null".
+     * @param parser Parser positioned at the start of JSON array of perunAttributes from Perun.
+     * @return Map<String, PerunAttribute>.
+     */
+    public static Map<String, PerunAttribute> mapAttributes(@NonNull JsonParser parser) throws IOException {
+        Map<String, PerunAttribute> mappedAttrs = new HashMap<>();
+        if (!isArrayStart(parser)) {
+            return mappedAttrs;
+        }
+
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            Long id = null;
+            String friendlyName = null;
+            String namespace = null;
+            String description = "";
+            String type = null;
+            String displayName = null;
+            boolean writable = false;
+            boolean unique = false;
+            String entity = null;
+            String baseFriendlyName = null;
+            String friendlyNameParameter = null;
+            JsonNode value = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                switch (field) {
+                    case "id": id = parser.getLongValue(); break;
+                    case "friendlyName": friendlyName = asText(parser); break;
+                    case "namespace": namespace = asText(parser); break;
+                    case "description": description = asText(parser); break;
+                    case "type": type = asText(parser); break;
+                    case "displayName": displayName = asText(parser); break;
+                    case "writable": writable = parser.getValueAsBoolean(); break;
+                    case "unique": unique = parser.getValueAsBoolean(); break;
+                    case "entity": entity = asText(parser); break;
+                    case "baseFriendlyName": baseFriendlyName = asText(parser); break;
+                    case "friendlyNameParameter": friendlyNameParameter = asText(parser); break;
+                    case "value": value = parser.readValueAsTree(); break;
+                    default: parser.skipChildren();
+                }
+            }
+            PerunAttribute mappedAttribute = new PerunAttribute(id, friendlyName, namespace, description, type,
+                    displayName, writable, unique, entity, baseFriendlyName, friendlyNameParameter, value);
+            mappedAttrs.put(mappedAttribute.getUrn(), mappedAttribute);
+        }
+
+        return mappedAttrs;
+    }
+
+    /**
+     * Text of the current value, the same as {@link JsonNode#asText()} gives for the value.
+     */
+    private static String asText(JsonParser parser) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.VALUE_NULL) {
+            return "null";
+        } else if (token != null && token.isStructStart()) {
+            parser.skipChildren();
+            return "";
+        }
+        return parser.getValueAsString();
+    }
+
+    private static boolean isArrayStart(JsonParser parser) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == null || token == JsonToken.VALUE_NULL) {
+            return false;
+        } else if (token != JsonToken.START_ARRAY) {
+            throw new JsonParseException(parser, "Expected JSON array, got " + token);
+        }
+        return true;
+    }
+
     public static Group mapGroup(@NonNull JsonNode json) {
         if (json.isNull()) {
             return null;
@@ -120,12 +279,32 @@ public class Mapper {
         String description = json.get("description").asText();
         Long parentGroupId = null;
         if (json.hasNonNull("parentGroupId")) {
-            json.get("parentGroupId").asLong();
+            parentGroupId = json.get("parentGroupId").asLong();
         }
         Long voId = json.get("voId").asLong();
 
         return new Group(id, name, shortName, description, parentGroupId, voId);
     }
 
+    /**
+     * Maps JsonNode to List of Groups.
+     * @param jsonArray JSON array of groups in JSON format from Perun to be mapped.
+     * @return List of groups.
+     */
+    public static List<Group> mapGroups(@NonNull JsonNode jsonArray) {
+        if (jsonArray.isNull()) {
+            return new ArrayList<>();
+        }
+
+        List<Group> result = new ArrayList<>();
+        for (int i = 0; i < jsonArray.size(); i++) {
+            JsonNode groupNode = jsonArray.get(i);
+            Group mappedGroup = Mapper.mapGroup(groupNode);
+            result.add(mappedGroup);
+        }
+
+        return result;
+    }
+
 }
 
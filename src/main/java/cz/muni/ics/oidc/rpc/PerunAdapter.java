@@ -8,16 +8,20 @@ import cz.muni.ics.oidc.models.Facility;
 import cz.muni.ics.oidc.models.Group;
 import cz.muni.ics.oidc.models.PerunAttribute;
 import cz.muni.ics.oidc.models.PerunAttributeValue;
+import cz.muni.ics.oidc.models.RichFacility;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.text.Normalizer;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.regex.Pattern;
 
 /**
@@ -46,49 +50,179 @@ public class PerunAdapter {
     public static final String PARAM_ATTR_NAMES = "attrNames";
     public static final String PARAM_ATTRIBUTES = "attributes";
     public static final String PARAM_ATTRIBUTE_NAME = "attributeName";
+    public static final String PARAM_ATTRIBUTE_VALUE = "attributeValue";
+    public static final String PARAM_LIST_OF_ATTRIBUTES_NAMES = "listOfAttributesNames";
     private static final String PARAM_ATTRIBUTES_WITH_SEARCHING_VALUES = "attributesWithSearchingValues";
 
     private final PerunConnector perunConnector;
+    private final PerunReadCache readCache;
+    private final AttributeDefinitionCache attributeDefinitionCache;
+    private volatile long retriesAtRunStart = 0;
 
     @Autowired
-    public PerunAdapter(@NonNull PerunConnector perunConnector)
+    public PerunAdapter(@NonNull PerunConnector perunConnector,
+                        @NonNull PerunReadCache readCache,
+                        @NonNull AttributeDefinitionCache attributeDefinitionCache)
     {
         this.perunConnector = perunConnector;
+        this.readCache = readCache;
+        this.attributeDefinitionCache = attributeDefinitionCache;
+    }
+
+    /**
+     * Start new sync run, the data cached by previous run are dropped.
+     */
+    public void startRun() {
+        readCache.clear();
+        attributeDefinitionCache.clear();
+        retriesAtRunStart = perunConnector.getRetries();
+        perunConnector.getCallMetrics().reset();
+    }
+
+    /**
+     * Finish the sync run, logs the summary of the calls to Perun, statistics of the read cache and of the limiters
+     * of calls.
+     */
+    public void finishRun() {
+        perunConnector.getCallMetrics().logSummary();
+        readCache.logStatistics();
+        perunConnector.getConcurrencyLimiter().logStatistics();
+        if (!perunConnector.getReadRateLimiter().isUnlimited() || !perunConnector.getWriteRateLimiter().isUnlimited()) {
+            log.info("Perun rate limiter - waited for reads: {} ms, for writes: {} ms",
+                    perunConnector.getReadRateLimiter().getTotalWait(),
+                    perunConnector.getWriteRateLimiter().getTotalWait());
+        }
+    }
+
+    /**
+     * @return Metrics of the calls made to Perun since the start of the run, by manager/method.
+     */
+    public Map<String, PerunCallMetrics.Snapshot> getCallMetrics() {
+        return perunConnector.getCallMetrics().snapshot();
+    }
+
+    /**
+     * @return TRUE if the calls to Perun fail immediately, because Perun has not been reachable.
+     */
+    public boolean isCircuitOpen() {
+        return perunConnector.getCircuitBreaker().isOpen();
+    }
+
+    /**
+     * @return Number of calls to Perun retried since the start of the run.
+     */
+    public long getRetries() {
+        return perunConnector.getRetries() - retriesAtRunStart;
     }
 
     public Map<String, PerunAttribute> getAttributes(@NonNull Long facilityId, List<String> attrIdentifiers)
             throws PerunUnknownException, PerunConnectionException
     {
-        Map<String, Object> params = new LinkedHashMap<>();
-        params.put("facility", facilityId);
-        params.put(PARAM_ATTR_NAMES, attrIdentifiers);
+        Map<String, PerunAttribute> cached = readCache.getAttributes(facilityId, attrIdentifiers);
+        if (cached != null) {
+            return cached;
+        }
+        JsonNode perunResponse = perunConnector.post(ATTRIBUTES_MANAGER, "getAttributes",
+                getAttributesParams(facilityId, attrIdentifiers));
+        Map<String, PerunAttribute> attributes = Mapper.mapAttributes(perunResponse);
+        readCache.putAttributes(facilityId, attributes.values());
+        return attributes;
+    }
 
-        JsonNode perunResponse = perunConnector.post(ATTRIBUTES_MANAGER, "getAttributes", params);
-        return Mapper.mapAttributes(perunResponse);
+    public CompletableFuture<Map<String, PerunAttribute>> getAttributesAsync(@NonNull Long facilityId,
+                                                                             List<String> attrIdentifiers)
+    {
+        Map<String, PerunAttribute> cached = readCache.getAttributes(facilityId, attrIdentifiers);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return perunConnector.postAsync(ATTRIBUTES_MANAGER, "getAttributes",
+                getAttributesParams(facilityId, attrIdentifiers))
+                .thenApply(Mapper::mapAttributes)
+                .thenApply(attributes -> {
+                    readCache.putAttributes(facilityId, attributes.values());
+                    return attributes;
+                });
     }
 
     public PerunAttribute getAttribute(@NonNull Long facilityId,
                                        @NonNull String attrToFetch)
             throws PerunUnknownException, PerunConnectionException
     {
+        PerunAttribute cached = readCache.getAttribute(facilityId, attrToFetch);
+        if (cached != null) {
+            return cached;
+        }
         Map<String, Object> params = new LinkedHashMap<>();
         params.put("facility", facilityId);
         params.put(PARAM_ATTRIBUTE_NAME, attrToFetch);
         JsonNode perunResponse = perunConnector.post(ATTRIBUTES_MANAGER, "getAttribute", params);
 
-        return Mapper.mapAttribute(perunResponse);
+        PerunAttribute attribute = Mapper.mapAttribute(perunResponse);
+        if (attribute != null) {
+            readCache.putAttributes(facilityId, Collections.singletonList(attribute));
+        }
+        return attribute;
     }
 
     public boolean setAttributes(@NonNull Long facilityId,
                                  @NonNull List<PerunAttribute> attributes)
             throws PerunUnknownException, PerunConnectionException
     {
-        Map<String, Object> params = new LinkedHashMap<>();
-        params.put("facility", facilityId);
-        params.put(PARAM_ATTRIBUTES, attributes);
+        readCache.evictAttributes(facilityId, attributes);
+        JsonNode perunResponse = perunConnector.post(ATTRIBUTES_MANAGER, "setAttributes",
+                setAttributesParams(facilityId, attributes));
+        boolean success = isNullResponse(perunResponse);
+        if (success) {
+            readCache.putAttributes(facilityId, attributes);
+        }
+        return success;
+    }
 
-        JsonNode perunResponse = perunConnector.post(ATTRIBUTES_MANAGER, "setAttributes", params);
-        return (perunResponse == null || perunResponse.isNull() || perunResponse instanceof NullNode);
+    public CompletableFuture<Boolean> setAttributesAsync(@NonNull Long facilityId,
+                                                         @NonNull List<PerunAttribute> attributes)
+    {
+        readCache.evictAttributes(facilityId, attributes);
+        return perunConnector.postAsync(ATTRIBUTES_MANAGER, "setAttributes",
+                setAttributesParams(facilityId, attributes))
+                .thenApply(this::isNullResponse)
+                .thenApply(success -> {
+                    if (success) {
+                        readCache.putAttributes(facilityId, attributes);
+                    }
+                    return success;
+                });
+    }
+
+    /**
+     * Get attributes with empty values built from the attribute definitions. Definitions are fetched from Perun
+     * once per run, the definitions stored by previous runs are used only when Perun cannot be reached,
+     * see {@link AttributeDefinitionCache}.
+     */
+    public Map<String, PerunAttribute> getAttributeDefinitions(@NonNull List<String> attrIdentifiers)
+            throws PerunUnknownException, PerunConnectionException
+    {
+        Map<String, PerunAttribute> cached = attributeDefinitionCache.getAttributes(attrIdentifiers);
+        if (cached != null) {
+            return cached;
+        }
+        Map<String, Object> params = new LinkedHashMap<>();
+        params.put(PARAM_LIST_OF_ATTRIBUTES_NAMES, attrIdentifiers);
+
+        JsonNode perunResponse;
+        try {
+            perunResponse = perunConnector.post(ATTRIBUTES_MANAGER, "getAttributesDefinition", params);
+        } catch (PerunConnectionException e) {
+            Map<String, PerunAttribute> stored = attributeDefinitionCache.getStoredAttributes(attrIdentifiers);
+            if (stored == null) {
+                throw e;
+            }
+            log.warn("Cannot fetch attribute definitions from Perun, using the stored ones ({})", e.getMessage());
+            return stored;
+        }
+        Map<String, PerunAttribute> definitions = Mapper.mapAttributes(perunResponse);
+        attributeDefinitionCache.putDefinitions(definitions.values());
+        return attributeDefinitionCache.getAttributes(definitions.keySet());
     }
 
     public Map<String, PerunAttributeValue> getAttributesValues(@NonNull Long facilityId,
@@ -108,14 +242,60 @@ public class PerunAdapter {
 
     public List<Facility> getFacilitiesByAttribute(@NonNull String attributeName, @NonNull String attrValue)
             throws PerunUnknownException, PerunConnectionException
+    {
+        JsonNode perunResponse = perunConnector.post(SEARCHER, "getFacilities",
+                getFacilitiesByAttributeParams(attributeName, attrValue));
+        return Mapper.mapFacilities(perunResponse);
+    }
+
+    public CompletableFuture<List<Facility>> getFacilitiesByAttributeAsync(@NonNull String attributeName,
+                                                                           @NonNull String attrValue)
+    {
+        return perunConnector.postAsync(SEARCHER, "getFacilities",
+                getFacilitiesByAttributeParams(attributeName, attrValue))
+                .thenApply(Mapper::mapFacilities);
+    }
+
+    /**
+     * Fetch facilities with the given attribute value together with the requested facility attributes in a single
+     * call to Perun, so no separate getAttributes call is needed for each of the facilities.
+     */
+    public List<RichFacility> getFacilitiesByAttributeWithAttributes(@NonNull String attributeName,
+                                                                     @NonNull String attrValue,
+                                                                     List<String> attrIdentifiers)
+            throws PerunUnknownException, PerunConnectionException
+    {
+        return getFacilitiesByAttributeWithAttributes(attributeName, attrValue, attrIdentifiers, false);
+    }
+
+    /**
+     * Fetch facilities with the given attribute value together with the requested facility attributes in a single
+     * call to Perun.
+     * @param streamResponse Decode the response from the stream of JSON tokens instead of the JSON tree. Saves memory
+     *                       on large responses. The fetched attributes are not put to the read cache then, keeping
+     *                       them for the rest of the run would hold the whole response in memory anyway.
+     */
+    public List<RichFacility> getFacilitiesByAttributeWithAttributes(@NonNull String attributeName,
+                                                                     @NonNull String attrValue,
+                                                                     List<String> attrIdentifiers,
+                                                                     boolean streamResponse)
+            throws PerunUnknownException, PerunConnectionException
     {
         Map<String, Object> params = new LinkedHashMap<>();
-        Map<String, String> attributesWithSearchingValues = new HashMap<>();
-        attributesWithSearchingValues.put(attributeName, attrValue);
-        params.put(PARAM_ATTRIBUTES_WITH_SEARCHING_VALUES, attributesWithSearchingValues);
+        params.put(PARAM_ATTRIBUTE_NAME, attributeName);
+        params.put(PARAM_ATTRIBUTE_VALUE, attrValue);
+        params.put(PARAM_ATTR_NAMES, attrIdentifiers);
 
-        JsonNode perunResponse = perunConnector.post(SEARCHER, "getFacilities", params);
-        return Mapper.mapFacilities(perunResponse);
+        if (streamResponse) {
+            // not cached, keeping the attributes for the whole run would defeat the memory saved by streaming
+            return perunConnector.post(FACILITIES_MANAGER, "getFacilitiesByAttributeWithAttributes", params,
+                    Mapper::mapRichFacilities);
+        }
+        JsonNode perunResponse = perunConnector.post(FACILITIES_MANAGER, "getFacilitiesByAttributeWithAttributes",
+                params);
+        List<RichFacility> facilities = Mapper.mapRichFacilities(perunResponse);
+        facilities.forEach(f -> readCache.putAttributes(f.getId(), f.getAttributes().values()));
+        return facilities;
     }
 
     public Facility createFacility(@NonNull String clientName, String clientDescription)
@@ -135,6 +315,7 @@ public class PerunAdapter {
         params.put("force", true);
 
         JsonNode res = perunConnector.post(FACILITIES_MANAGER, "deleteFacility", params);
+        readCache.evictFacility(f.getId());
         return res == null || res.isNull();
     }
 
@@ -146,7 +327,11 @@ public class PerunAdapter {
         params.put("group", group.toJson());
 
         JsonNode res = perunConnector.post(GROUPS_MANAGER, "createGroup", params);
-        return Mapper.mapGroup(res);
+        Group created = Mapper.mapGroup(res);
+        if (created != null) {
+            readCache.putGroup(created.getVoId(), created.getName(), created);
+        }
+        return created;
     }
 
     public boolean addGroupAsAdmins(@NonNull Long facilityId, @NonNull Long groupId)
@@ -166,18 +351,61 @@ public class PerunAdapter {
         params.put("force", true);
 
         JsonNode res = perunConnector.post(GROUPS_MANAGER, "deleteGroup", params);
+        readCache.evictGroup(groupId);
         return res == null || res.isNull();
     }
 
     public Group getGroupByName(Long managersGroupVoId, String groupName)
             throws PerunUnknownException, PerunConnectionException
     {
+        Optional<Group> cached = readCache.getGroupByName(managersGroupVoId, groupName);
+        if (cached != null) {
+            return cached.orElse(null);
+        }
         Map<String, Object> params = new LinkedHashMap<>();
         params.put("vo", managersGroupVoId);
         params.put("name", groupName);
 
         JsonNode res = perunConnector.post(GROUPS_MANAGER, "getGroupByName", params);
-        return Mapper.mapGroup(res);
+        Group group = Mapper.mapGroup(res);
+        readCache.putGroup(managersGroupVoId, groupName, group);
+        return group;
+    }
+
+    public List<Group> getSubGroups(@NonNull Long parentGroupId)
+            throws PerunUnknownException, PerunConnectionException
+    {
+        Map<String, Object> params = new LinkedHashMap<>();
+        params.put("parentGroup", parentGroupId);
+
+        JsonNode res = perunConnector.post(GROUPS_MANAGER, "getSubGroups", params);
+        return Mapper.mapGroups(res);
+    }
+
+    private Map<String, Object> getAttributesParams(Long facilityId, List<String> attrIdentifiers) {
+        Map<String, Object> params = new LinkedHashMap<>();
+        params.put("facility", facilityId);
+        params.put(PARAM_ATTR_NAMES, attrIdentifiers);
+        return params;
+    }
+
+    private Map<String, Object> setAttributesParams(Long facilityId, List<PerunAttribute> attributes) {
+        Map<String, Object> params = new LinkedHashMap<>();
+        params.put("facility", facilityId);
+        params.put(PARAM_ATTRIBUTES, attributes);
+        return params;
+    }
+
+    private Map<String, Object> getFacilitiesByAttributeParams(String attributeName, String attrValue) {
+        Map<String, Object> params = new LinkedHashMap<>();
+        Map<String, String> attributesWithSearchingValues = new HashMap<>();
+        attributesWithSearchingValues.put(attributeName, attrValue);
+        params.put(PARAM_ATTRIBUTES_WITH_SEARCHING_VALUES, attributesWithSearchingValues);
+        return params;
+    }
+
+    private boolean isNullResponse(JsonNode perunResponse) {
+        return perunResponse == null || perunResponse.isNull() || perunResponse instanceof NullNode;
     }
 
     private Map<String, PerunAttributeValue> extractAttrValues(Map<String, PerunAttribute> attributeMap) {
@@ -0,0 +1,41 @@
+package cz.muni.ics.oidc.rpc;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event of a call to Perun RPC. The duration covers the call itself, waiting for the limiters is excluded.
+ */
+@Name("cz.muni.ics.oidc.PerunCall")
+@Label("Perun Call")
+@Category({"SP Registry Sync", "Perun"})
+@Description("Call to Perun RPC")
+class PerunCallEvent extends Event {
+
+    static final String STATUS_OK = "OK";
+    static final String STATUS_ERROR = "ERROR";
+    static final String STATUS_FAILED = "FAILED";
+
+    @Label("Manager")
+    String manager;
+
+    @Label("Method")
+    String method;
+
+    @Label("Bytes Sent")
+    @DataAmount
+    long bytesSent;
+
+    @Label("Bytes Received")
+    @DataAmount
+    long bytesReceived;
+
+    @Label("Status")
+    @Description("OK, ERROR for an error reported by Perun, FAILED for a connection error, timeout or 5xx")
+    String status;
+
+}
@@ -0,0 +1,136 @@
+package cz.muni.ics.oidc.rpc;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histograms and counters of calls to Perun, kept per manager and method. Latencies are counted into
+ * exponential buckets (four per doubling), so the percentiles are approximate with the precision of about 20 %.
+ */
+@Slf4j
+public class PerunCallMetrics {
+
+    private static final int BUCKETS_PER_DOUBLING = 4;
+    private static final int BUCKETS = 100;
+
+    private final Map<String, MethodMetrics> metrics = new ConcurrentHashMap<>();
+
+    public void record(String manager, String method, long latency, boolean error, long bytesSent,
+                       long bytesReceived)
+    {
+        metrics.computeIfAbsent(manager + '/' + method, k -> new MethodMetrics())
+                .record(latency, error, bytesSent, bytesReceived);
+    }
+
+    public void reset() {
+        metrics.clear();
+    }
+
+    /**
+     * @return Current values of the metrics by manager/method.
+     */
+    public Map<String, Snapshot> snapshot() {
+        Map<String, Snapshot> result = new TreeMap<>();
+        metrics.forEach((key, value) -> result.put(key, value.snapshot()));
+        return result;
+    }
+
+    public void logSummary() {
+        Map<String, Snapshot> snapshot = snapshot();
+        if (snapshot.isEmpty()) {
+            return;
+        }
+        StringBuilder table = new StringBuilder(String.format("%-60s %7s %6s %8s %8s %8s %8s %12s %12s%n",
+                "manager/method", "calls", "errors", "p50[ms]", "p90[ms]", "p99[ms]", "max[ms]", "sent[B]",
+                "received[B]"));
+        snapshot.forEach((key, s) -> table.append(String.format("%-60s %7d %6d %8d %8d %8d %8d %12d %12d%n",
+                key, s.getCalls(), s.getErrors(), s.getP50(), s.getP90(), s.getP99(), s.getMax(),
+                s.getBytesSent(), s.getBytesReceived())));
+        log.info("Perun calls:\n{}", table);
+    }
+
+    @Getter
+    @ToString
+    @AllArgsConstructor
+    public static class Snapshot {
+        private final long calls;
+        private final long errors;
+        private final long bytesSent;
+        private final long bytesReceived;
+        private final long totalLatency;
+        private final long p50;
+        private final long p90;
+        private final long p99;
+        private final long max;
+    }
+
+    private static class MethodMetrics {
+
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong bytesSent = new AtomicLong();
+        private final AtomicLong bytesReceived = new AtomicLong();
+        private final AtomicLong totalLatency = new AtomicLong();
+        private final AtomicLong maxLatency = new AtomicLong();
+        private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+        void record(long latency, boolean error, long sent, long received) {
+            calls.incrementAndGet();
+            if (error) {
+                errors.incrementAndGet();
+            }
+            bytesSent.addAndGet(sent);
+            bytesReceived.addAndGet(received);
+            totalLatency.addAndGet(latency);
+            maxLatency.accumulateAndGet(latency, Math::max);
+            histogram.incrementAndGet(bucket(latency));
+        }
+
+        Snapshot snapshot() {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = histogram.get(i);
+                total += counts[i];
+            }
+            long max = maxLatency.get();
+            return new Snapshot(calls.get(), errors.get(), bytesSent.get(), bytesReceived.get(), totalLatency.get(),
+                    percentile(counts, total, 0.5, max), percentile(counts, total, 0.9, max),
+                    percentile(counts, total, 0.99, max), max);
+        }
+
+        private static int bucket(long latency) {
+            int bucket = (int) (BUCKETS_PER_DOUBLING * Math.log(Math.max(latency, 0) + 1) / Math.log(2));
+            return Math.min(bucket, BUCKETS - 1);
+        }
+
+        private static long upperBound(int bucket) {
+            return (long) Math.ceil(Math.pow(2, (double) (bucket + 1) / BUCKETS_PER_DOUBLING)) - 1;
+        }
+
+        private static long percentile(long[] counts, long total, double percentile, long max) {
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(percentile * total);
+            long cumulative = 0;
+            for (int i = 0; i < counts.length; i++) {
+                cumulative += counts[i];
+                if (cumulative >= rank) {
+                    return Math.min(upperBound(i), max);
+                }
+            }
+            return max;
+        }
+
+    }
+
+}
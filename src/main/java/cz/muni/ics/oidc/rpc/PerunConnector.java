@@ -1,23 +1,54 @@
 package cz.muni.ics.oidc.rpc;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.io.JsonEOFException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import cz.muni.ics.oidc.exception.PerunCircuitOpenException;
 import cz.muni.ics.oidc.exception.PerunConnectionException;
 import cz.muni.ics.oidc.exception.PerunUnknownException;
 import cz.muni.ics.oidc.props.ConnectorProperties;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
 import org.springframework.stereotype.Component;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.RequestCallback;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.client.UnknownHttpStatusCodeException;
 
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.NotNull;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 
 import static java.lang.System.currentTimeMillis;
 
@@ -32,19 +63,83 @@ import static java.lang.System.currentTimeMillis;
 @Validated
 public class PerunConnector {
 
+    private static final String GZIP = "gzip";
+    private static final String DEFLATE = "deflate";
+
     private final String perunUrl;
     private final RestTemplate restTemplate;
+    private final HttpClient asyncHttpClient;
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    private final String basicAuth;
+    private final Duration socketTimeout;
+    private final boolean responseCompression;
+    private final boolean requestCompression;
+    private final int requestCompressionMinSize;
+    private final boolean coalesceReads;
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private final int maxRetries;
+    private final long retryInitialBackoff;
+    private final long retryMaxBackoff;
+    private final long callDeadline;
+    private final AtomicLong retries = new AtomicLong();
+    private final CircuitBreaker circuitBreaker;
+    private final TokenBucket readRateLimiter;
+    private final TokenBucket writeRateLimiter;
+    private final PerunCallMetrics callMetrics = new PerunCallMetrics();
+    // read-only calls in flight, joined by identical calls made before they complete, cleared by any write
+    private final Map<String, CompletableFuture<JsonNode>> readResponses = new ConcurrentHashMap<>();
 
     @Autowired
     public PerunConnector(@NotNull RestTemplate restTemplate,
+                          @NotNull HttpClient asyncHttpClient,
                           @NotNull ConnectorProperties properties)
     {
         this.restTemplate = restTemplate;
+        this.asyncHttpClient = asyncHttpClient;
         this.perunUrl = properties.getPerunUrl() + '/' + properties.getSerializer();
+        this.basicAuth = HttpHeaders.encodeBasicAuth(properties.getPerunUser(), properties.getPerunPassword(), null);
+        this.socketTimeout = Duration.ofMillis(properties.getSocketTimeout());
+        this.responseCompression = properties.isResponseCompression();
+        this.requestCompression = properties.isRequestCompression();
+        this.requestCompressionMinSize = properties.getRequestCompressionMinSize();
+        this.coalesceReads = properties.isCoalesceReads();
+        this.concurrencyLimiter = new AdaptiveConcurrencyLimiter(properties.getMinConcurrency(),
+                properties.getInitialConcurrency(), properties.getMaxConcurrency(),
+                properties.getConcurrencyLatencyThreshold(), properties.getConcurrencyQueueTimeout());
+        this.maxRetries = properties.getMaxRetries();
+        this.retryInitialBackoff = properties.getRetryInitialBackoff();
+        this.retryMaxBackoff = properties.getRetryMaxBackoff();
+        this.callDeadline = properties.getCallDeadline();
+        this.circuitBreaker = new CircuitBreaker(properties.getCircuitFailureThreshold(),
+                properties.getCircuitOpenDuration());
+        this.readRateLimiter = new TokenBucket(properties.getReadRateLimit(), properties.getReadRateBurst());
+        this.writeRateLimiter = new TokenBucket(properties.getWriteRateLimit(), properties.getWriteRateBurst());
+    }
+
+    public AdaptiveConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public TokenBucket getReadRateLimiter() {
+        return readRateLimiter;
+    }
+
+    public TokenBucket getWriteRateLimiter() {
+        return writeRateLimiter;
+    }
+
+    public PerunCallMetrics getCallMetrics() {
+        return callMetrics;
     }
 
     /**
-     * Make post call to Perun RPC
+     * Make post call to Perun RPC. When coalescing of reads is enabled, an identical read-only call made while
+     * another one is in flight joins it instead of calling Perun again. Each caller gets its own copy of the response.
+     * Completed responses are not kept, caching is up to {@link PerunReadCache}.
      * @param manager String value representing manager to be called. Use constants from this class.
      * @param method Method to be called (i.e. getUserById)
      * @param map Map of parameters to be passed as request body
@@ -54,26 +149,602 @@ public class PerunConnector {
      */
     public JsonNode post(@NotBlank String manager, @NotBlank String method, @NotNull Map<String, Object> map)
             throws PerunUnknownException, PerunConnectionException
+    {
+        if (!coalesceReads) {
+            return doPost(manager, method, map);
+        } else if (!isReadOnly(manager, method)) {
+            try {
+                return doPost(manager, method, map);
+            } finally {
+                readResponses.clear();
+            }
+        }
+
+        String key = getCallKey(manager, method, map);
+        CompletableFuture<JsonNode> call = new CompletableFuture<>();
+        CompletableFuture<JsonNode> sharedCall = readResponses.putIfAbsent(key, call);
+        if (sharedCall == null) {
+            try {
+                JsonNode result = doPost(manager, method, map);
+                call.complete(result);
+                return copy(result);
+            } catch (PerunUnknownException | PerunConnectionException | RuntimeException e) {
+                call.completeExceptionally(e);
+                throw e;
+            } finally {
+                readResponses.remove(key, call);
+            }
+        }
+
+        log.trace("Sharing response of perun RPC call {}", key);
+        try {
+            return copy(sharedCall.join());
+        } catch (CompletionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    private JsonNode doPost(String manager, String method, Map<String, Object> map)
+            throws PerunUnknownException, PerunConnectionException
+    {
+        return withRetries(manager, method, () -> executePost(manager, method, map));
+    }
+
+    private JsonNode executePost(String manager, String method, Map<String, Object> map)
+            throws PerunUnknownException, PerunConnectionException
     {
         String actionUrl = this.perunUrl + '/' + manager + '/' + method;
+        byte[] requestBody = serialize(map);
 
         // make the call
+        PerunCallEvent event = beginCall(manager, method);
+        long startTime = currentTimeMillis();
+        boolean failed = false;
+        boolean error = true;
+        AtomicLong bytesReceived = new AtomicLong();
         try {
             log.trace("Calling perun RPC:\n URL: {},\n params: {}", actionUrl, map);
-            long startTime = currentTimeMillis();
-            JsonNode result = restTemplate.postForObject(actionUrl, map, JsonNode.class);
+            JsonNode result = restTemplate.execute(actionUrl, HttpMethod.POST, jsonRequestCallback(requestBody),
+                    response -> {
+                        InputStream body = new CountingInputStream(response.getBody(), bytesReceived);
+                        JsonNode tree = decode(() -> objectMapper.readTree(body));
+                        // empty response
+                        return tree == null || tree.isMissingNode() ? null : tree;
+                    });
+            long endTime = currentTimeMillis();
+            long responseTime = endTime - startTime;
+            log.trace("POST call proceeded in {} ms.",responseTime);
+            log.trace("Calling perun RPC:\n URL: {},\n params: {}\n returns: {}", actionUrl, map, result);
+            error = false;
+            return result;
+        } catch (HttpClientErrorException ex) {
+            JsonNode result = handleHttpClientErrorException(ex, actionUrl);
+            error = false;
+            return result;
+        } catch (MalformedResponseException e) {
+            throw new PerunUnknownException("Cannot decode response of Perun RPC", e.getCause());
+        } catch (Exception e) {
+            failed = true;
+            throw new PerunConnectionException("Error when contacting Perun RPC", e);
+        } finally {
+            endCall(event, manager, method, currentTimeMillis() - startTime, failed, error, requestBody.length,
+                    bytesReceived.get());
+        }
+    }
+
+    /**
+     * Make post call to Perun RPC and decode the response directly from the stream of JSON tokens, without building
+     * the JSON tree of the whole response first. Suitable for large responses.
+     * @param manager String value representing manager to be called. Use constants from this class.
+     * @param method Method to be called (i.e. getUserById)
+     * @param map Map of parameters to be passed as request body
+     * @param decoder Decoder of the response. Gets the parser positioned at the first token of the response.
+     * @return Decoded response from Perun
+     * @throws PerunUnknownException Thrown as wrapper of unknown exception thrown by Perun interface.
+     * @throws PerunConnectionException Thrown when problem with connection to Perun interface occurs.
+     */
+    public <T> T post(@NotBlank String manager,
+                      @NotBlank String method,
+                      @NotNull Map<String, Object> map,
+                      @NotNull StreamDecoder<T> decoder)
+            throws PerunUnknownException, PerunConnectionException
+    {
+        return withRetries(manager, method, () -> executePost(manager, method, map, decoder));
+    }
+
+    private <T> T executePost(String manager, String method, Map<String, Object> map, StreamDecoder<T> decoder)
+            throws PerunUnknownException, PerunConnectionException
+    {
+        String actionUrl = this.perunUrl + '/' + manager + '/' + method;
+        byte[] requestBody = serialize(map);
+
+        // make the call
+        PerunCallEvent event = beginCall(manager, method);
+        long startTime = currentTimeMillis();
+        boolean failed = false;
+        boolean error = true;
+        AtomicLong bytesReceived = new AtomicLong();
+        try {
+            log.trace("Calling perun RPC (streamed response):\n URL: {},\n params: {}", actionUrl, map);
+            T result = restTemplate.execute(actionUrl, HttpMethod.POST, jsonRequestCallback(requestBody),
+                    response -> {
+                        InputStream body = new CountingInputStream(response.getBody(), bytesReceived);
+                        try (JsonParser parser = objectMapper.getFactory().createParser(body)) {
+                            return decode(() -> {
+                                parser.nextToken();
+                                return decoder.decode(parser);
+                            });
+                        }
+                    });
             long endTime = currentTimeMillis();
             long responseTime = endTime - startTime;
             log.trace("POST call proceeded in {} ms.",responseTime);
             log.trace("Calling perun RPC:\n URL: {},\n params: {}\n returns: {}", actionUrl, map, result);
+            error = false;
             return result;
         } catch (HttpClientErrorException ex) {
-            return handleHttpClientErrorException(ex, actionUrl);
+            JsonNode result = handleHttpClientErrorException(ex, actionUrl);
+            try (JsonParser parser = objectMapper.treeAsTokens(result)) {
+                parser.nextToken();
+                T decoded = decoder.decode(parser);
+                error = false;
+                return decoded;
+            } catch (IOException e) {
+                throw new PerunUnknownException("Error when contacting Perun RPC", e);
+            }
+        } catch (MalformedResponseException e) {
+            throw new PerunUnknownException("Cannot decode response of Perun RPC", e.getCause());
         } catch (Exception e) {
+            failed = true;
+            throw new PerunConnectionException("Error when contacting Perun RPC", e);
+        } finally {
+            endCall(event, manager, method, currentTimeMillis() - startTime, failed, error, requestBody.length,
+                    bytesReceived.get());
+        }
+    }
+
+    /**
+     * Make non-blocking post call to Perun RPC. Uses the same authentication, timeouts, retries and error mapping
+     * as the blocking {@link #post(String, String, Map)}. The circuit breaker, the rate limiter and the concurrency
+     * limiter do not block the caller either, the call is only scheduled once a token and a free slot are available.
+     * @param manager String value representing manager to be called. Use constants from this class.
+     * @param method Method to be called (i.e. getUserById)
+     * @param map Map of parameters to be passed as request body
+     * @return Future completed with the response from Perun. Completes exceptionally with PerunUnknownException or
+     * PerunConnectionException in the same cases as the blocking call throws them.
+     */
+    public CompletableFuture<JsonNode> postAsync(@NotBlank String manager,
+                                                 @NotBlank String method,
+                                                 @NotNull Map<String, Object> map)
+    {
+        if (!coalesceReads) {
+            return doPostAsync(manager, method, map);
+        } else if (!isReadOnly(manager, method)) {
+            return doPostAsync(manager, method, map)
+                    .whenComplete((result, ex) -> readResponses.clear());
+        }
+
+        String key = getCallKey(manager, method, map);
+        CompletableFuture<JsonNode> call = new CompletableFuture<>();
+        CompletableFuture<JsonNode> sharedCall = readResponses.putIfAbsent(key, call);
+        if (sharedCall != null) {
+            log.trace("Sharing response of perun RPC call {}", key);
+            return sharedCall.thenApply(this::copy);
+        }
+        doPostAsync(manager, method, map).whenComplete((result, ex) -> {
+            readResponses.remove(key, call);
+            if (ex != null) {
+                call.completeExceptionally(ex instanceof CompletionException ? ex.getCause() : ex);
+            } else {
+                call.complete(result);
+            }
+        });
+        return call.thenApply(this::copy);
+    }
+
+    private CompletableFuture<JsonNode> doPostAsync(String manager, String method, Map<String, Object> map) {
+        if (!isReadOnly(manager, method)) {
+            return executePostAsync(manager, method, map);
+        }
+        return doPostAsyncWithRetries(manager, method, map, 0, currentTimeMillis() + callDeadline);
+    }
+
+    private CompletableFuture<JsonNode> doPostAsyncWithRetries(String manager,
+                                                               String method,
+                                                               Map<String, Object> map,
+                                                               int attempt,
+                                                               long deadline)
+    {
+        return executePostAsync(manager, method, map)
+                .handle((result, ex) -> {
+                    if (ex == null) {
+                        return CompletableFuture.completedFuture(result);
+                    }
+                    Throwable cause = ex instanceof CompletionException ? ex.getCause() : ex;
+                    long backoff = getRetryBackoff(attempt, deadline);
+                    if (!(cause instanceof PerunConnectionException) || cause instanceof PerunCircuitOpenException
+                            || backoff < 0) {
+                        return CompletableFuture.<JsonNode>failedFuture(cause);
+                    }
+                    logRetry(manager, method, attempt, backoff, cause);
+                    return CompletableFuture.runAsync(() -> {}, delayed(TimeUnit.MILLISECONDS.toNanos(backoff)))
+                            .thenCompose(v -> doPostAsyncWithRetries(manager, method, map, attempt + 1, deadline));
+                })
+                .thenCompose(Function.identity());
+    }
+
+    private CompletableFuture<JsonNode> executePostAsync(String manager, String method, Map<String, Object> map) {
+        String actionUrl = this.perunUrl + '/' + manager + '/' + method;
+
+        HttpRequest request;
+        long bytesSent;
+        try {
+            HttpRequest.Builder requestBuilder = HttpRequest.newBuilder(URI.create(actionUrl))
+                    .timeout(socketTimeout)
+                    .header(HttpHeaders.AUTHORIZATION, "Basic " + basicAuth)
+                    .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                    .header(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE);
+            if (responseCompression) {
+                requestBuilder.header(HttpHeaders.ACCEPT_ENCODING, GZIP + ", " + DEFLATE);
+            }
+            byte[] body = objectMapper.writeValueAsBytes(map);
+            bytesSent = body.length;
+            if (requestCompression && body.length >= requestCompressionMinSize) {
+                body = GzipRequestInterceptor.gzip(body);
+                requestBuilder.header(HttpHeaders.CONTENT_ENCODING, GZIP);
+            }
+            request = requestBuilder.POST(HttpRequest.BodyPublishers.ofByteArray(body)).build();
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(new PerunConnectionException("Error when contacting Perun RPC", e));
+        }
+
+        return beginCallAsync(manager, method).thenCompose(event -> {
+            log.trace("Calling perun RPC asynchronously:\n URL: {},\n params: {}", actionUrl, map);
+            long startTime = currentTimeMillis();
+            CompletableFuture<HttpResponse<byte[]>> response;
+            try {
+                response = asyncHttpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray());
+            } catch (RuntimeException e) {
+                response = CompletableFuture.failedFuture(e);
+            }
+            return response.handle((r, ex) -> {
+                long responseTime = currentTimeMillis() - startTime;
+                log.trace("Async POST call proceeded in {} ms.", responseTime);
+                boolean failed = true;
+                boolean error = true;
+                long bytesReceived = 0;
+                try {
+                    if (ex != null) {
+                        throw new PerunConnectionException("Error when contacting Perun RPC", ex);
+                    }
+                    byte[] body = decompress(r);
+                    bytesReceived = body == null ? 0 : body.length;
+                    JsonNode result = processAsyncResponse(r, body, actionUrl);
+                    failed = false;
+                    error = false;
+                    log.trace("Calling perun RPC:\n URL: {},\n params: {}\n returns: {}", actionUrl, map, result);
+                    return result;
+                } catch (PerunUnknownException e) {
+                    failed = false;
+                    throw new CompletionException(e);
+                } catch (PerunConnectionException e) {
+                    throw new CompletionException(e);
+                } catch (IOException e) {
+                    throw new CompletionException(new PerunConnectionException("Error when contacting Perun RPC", e));
+                } finally {
+                    endCall(event, manager, method, responseTime, failed, error, bytesSent, bytesReceived);
+                }
+            });
+        });
+    }
+
+    private JsonNode processAsyncResponse(HttpResponse<byte[]> response, byte[] body, String actionUrl)
+            throws PerunUnknownException, PerunConnectionException, IOException
+    {
+        int status = response.statusCode();
+        if (status >= 200 && status < 300) {
+            if (body == null || body.length == 0) {
+                return null;
+            }
+            try {
+                return decode(() -> objectMapper.readTree(body));
+            } catch (MalformedResponseException e) {
+                throw new PerunUnknownException("Cannot decode response of Perun RPC", e.getCause());
+            }
+        }
+
+        HttpHeaders headers = new HttpHeaders();
+        response.headers().map().forEach(headers::addAll);
+        HttpStatus httpStatus = HttpStatus.resolve(status);
+        if (httpStatus != null && httpStatus.is4xxClientError()) {
+            return handleHttpClientErrorException(HttpClientErrorException.create(httpStatus,
+                    httpStatus.getReasonPhrase(), headers, body, StandardCharsets.UTF_8), actionUrl);
+        }
+        if (httpStatus != null && httpStatus.is5xxServerError()) {
+            throw new PerunConnectionException("Error when contacting Perun RPC", HttpServerErrorException.create(
+                    httpStatus, httpStatus.getReasonPhrase(), headers, body, StandardCharsets.UTF_8));
+        }
+        throw new PerunConnectionException("Error when contacting Perun RPC",
+                new UnknownHttpStatusCodeException(status, "", headers, body, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The circuit breaker is checked first, so calls rejected while Perun is unreachable do not wait for the rate
+     * limiter or for a free slot.
+     */
+    private PerunCallEvent beginCall(String manager, String method) throws PerunConnectionException {
+        circuitBreaker.beforeCall();
+        try {
+            (isReadOnly(manager, method) ? readRateLimiter : writeRateLimiter).acquire();
+        } catch (InterruptedException e) {
+            circuitBreaker.onCancel();
+            Thread.currentThread().interrupt();
+            throw new PerunConnectionException("Interrupted while waiting for a call to Perun", e);
+        }
+        try {
+            concurrencyLimiter.acquire();
+        } catch (PerunConnectionException e) {
+            circuitBreaker.onCancel();
+            throw e;
+        }
+        PerunCallEvent event = new PerunCallEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Non-blocking variant of {@link #beginCall(String, String)}. The call is checked by the circuit breaker right
+     * away, then it is scheduled once the reserved token of the rate limiter is available and a slot is free.
+     */
+    private CompletableFuture<PerunCallEvent> beginCallAsync(String manager, String method) {
+        try {
+            circuitBreaker.beforeCall();
+        } catch (PerunCircuitOpenException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        long rateWait = (isReadOnly(manager, method) ? readRateLimiter : writeRateLimiter).reserve();
+        CompletableFuture<Void> token = rateWait > 0 ? CompletableFuture.runAsync(() -> {}, delayed(rateWait))
+                : CompletableFuture.completedFuture(null);
+        return token.thenCompose(v -> concurrencyLimiter.acquireAsync())
+                .handle((v, ex) -> {
+                    if (ex != null) {
+                        circuitBreaker.onCancel();
+                        throw ex instanceof CompletionException ? (CompletionException) ex
+                                : new CompletionException(ex);
+                    }
+                    PerunCallEvent event = new PerunCallEvent();
+                    event.begin();
+                    return event;
+                });
+    }
+
+    private static Executor delayed(long nanos) {
+        return CompletableFuture.delayedExecutor(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void endCall(PerunCallEvent event, String manager, String method, long latency, boolean failed,
+                         boolean error, long bytesSent, long bytesReceived)
+    {
+        event.end();
+        if (event.shouldCommit()) {
+            event.manager = manager;
+            event.method = method;
+            event.bytesSent = bytesSent;
+            event.bytesReceived = bytesReceived;
+            event.status = failed ? PerunCallEvent.STATUS_FAILED
+                    : (error ? PerunCallEvent.STATUS_ERROR : PerunCallEvent.STATUS_OK);
+            event.commit();
+        }
+        callMetrics.record(manager, method, latency, error, bytesSent, bytesReceived);
+        concurrencyLimiter.release(latency, failed);
+        if (failed) {
+            circuitBreaker.onFailure();
+        } else {
+            circuitBreaker.onSuccess();
+        }
+    }
+
+    /**
+     * Run the decoding of the response. A malformed response is reported as {@link MalformedResponseException},
+     * so it is not mistaken for a connection problem and retried. A response cut off in the middle (unexpected end
+     * of input) is left as IOException, it is most likely caused by the connection.
+     */
+    private static <T> T decode(ResponseDecoding<T> decoding) throws IOException {
+        try {
+            return decoding.decode();
+        } catch (JsonEOFException e) {
+            throw e;
+        } catch (JsonProcessingException | RuntimeException e) {
+            throw new MalformedResponseException(e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface ResponseDecoding<T> {
+        T decode() throws IOException;
+    }
+
+    /**
+     * Response of Perun cannot be decoded.
+     */
+    private static class MalformedResponseException extends RuntimeException {
+
+        MalformedResponseException(Throwable cause) {
+            super(cause);
+        }
+
+    }
+
+    private byte[] serialize(Map<String, Object> map) throws PerunConnectionException {
+        try {
+            return objectMapper.writeValueAsBytes(map);
+        } catch (JsonProcessingException e) {
             throw new PerunConnectionException("Error when contacting Perun RPC", e);
         }
     }
 
+    private RequestCallback jsonRequestCallback(byte[] body) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        return restTemplate.httpEntityCallback(new HttpEntity<>(body, headers), JsonNode.class);
+    }
+
+    /**
+     * Make the call, read-only calls failed due to connection problems are retried with jittered exponential
+     * backoff until the number of retries or the deadline of the call is exhausted.
+     */
+    private <T> T withRetries(String manager, String method, PerunCall<T> call)
+            throws PerunUnknownException, PerunConnectionException
+    {
+        if (!isReadOnly(manager, method)) {
+            return call.call();
+        }
+        long deadline = currentTimeMillis() + callDeadline;
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return call.call();
+            } catch (PerunConnectionException e) {
+                long backoff = getRetryBackoff(attempt, deadline);
+                if (e instanceof PerunCircuitOpenException || backoff < 0) {
+                    throw e;
+                }
+                logRetry(manager, method, attempt, backoff, e);
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Backoff before the next attempt in ms, negative if the call should not be retried.
+     */
+    private long getRetryBackoff(int attempt, long deadline) {
+        if (attempt >= maxRetries) {
+            return -1;
+        }
+        long maxBackoff = Math.min(retryMaxBackoff, retryInitialBackoff << Math.min(attempt, 30));
+        long backoff = ThreadLocalRandom.current().nextLong(maxBackoff + 1);
+        if (currentTimeMillis() + backoff >= deadline) {
+            return -1;
+        }
+        return backoff;
+    }
+
+    private void logRetry(String manager, String method, int attempt, long backoff, Throwable cause) {
+        retries.incrementAndGet();
+        log.debug("Call of perun RPC {}/{} failed ({}), retry {} of {} in {} ms", manager, method,
+                cause.getMessage(), attempt + 1, maxRetries, backoff);
+    }
+
+    public long getRetries() {
+        return retries.get();
+    }
+
+    @FunctionalInterface
+    private interface PerunCall<T> {
+        T call() throws PerunUnknownException, PerunConnectionException;
+    }
+
+    /**
+     * Calls of the get* methods and calls to the searcher do not modify anything in Perun.
+     */
+    private boolean isReadOnly(String manager, String method) {
+        return method.startsWith("get") || PerunAdapter.SEARCHER.equals(manager);
+    }
+
+    private String getCallKey(String manager, String method, Map<String, Object> map) {
+        try {
+            return manager + '/' + method + ' ' + objectMapper.writeValueAsString(map);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Cannot serialize params of perun RPC call", e);
+        }
+    }
+
+    // the shared response must not be modified by the callers
+    private JsonNode copy(JsonNode result) {
+        return result == null ? null : result.deepCopy();
+    }
+
+    private PerunConnectionException unwrap(CompletionException e) throws PerunUnknownException, PerunConnectionException {
+        Throwable cause = e.getCause();
+        if (cause instanceof PerunUnknownException) {
+            throw (PerunUnknownException) cause;
+        } else if (cause instanceof PerunConnectionException) {
+            throw (PerunConnectionException) cause;
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        return new PerunConnectionException("Error when contacting Perun RPC", cause);
+    }
+
+    private byte[] decompress(HttpResponse<byte[]> response) throws IOException {
+        byte[] body = response.body();
+        String contentEncoding = response.headers().firstValue(HttpHeaders.CONTENT_ENCODING).orElse("");
+        if (body == null || body.length == 0) {
+            return body;
+        } else if (GZIP.equalsIgnoreCase(contentEncoding)) {
+            try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+                return in.readAllBytes();
+            }
+        } else if (DEFLATE.equalsIgnoreCase(contentEncoding)) {
+            try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(body))) {
+                return in.readAllBytes();
+            }
+        }
+        return body;
+    }
+
+    /**
+     * Counts the bytes read from the wrapped stream.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        private final AtomicLong count;
+
+        CountingInputStream(InputStream in, AtomicLong count) {
+            super(in);
+            this.count = count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count.addAndGet(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count.addAndGet(skipped);
+            return skipped;
+        }
+
+    }
+
+    /**
+     * Decoder of the Perun response consuming the stream of JSON tokens.
+     */
+    @FunctionalInterface
+    public interface StreamDecoder<T> {
+        T decode(JsonParser parser) throws IOException;
+    }
+
     private JsonNode handleHttpClientErrorException(HttpClientErrorException ex, String actionUrl)
             throws PerunUnknownException {
         MediaType contentType = null;
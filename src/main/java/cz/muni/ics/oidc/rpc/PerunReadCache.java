@@ -0,0 +1,153 @@
+package cz.muni.ics.oidc.rpc;
+
+import cz.muni.ics.oidc.models.Group;
+import cz.muni.ics.oidc.models.PerunAttribute;
+import cz.muni.ics.oidc.props.ConnectorProperties;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Run-scoped cache of the data read from Perun by {@link PerunAdapter}. Facility attributes are kept by facility ID
+ * and attribute URN, groups by VO ID and group name. The adapter updates or invalidates the entries on writes.
+ * Cached objects are copied on the way in and out, so the callers can modify them freely.
+ */
+@Component
+@Slf4j
+public class PerunReadCache {
+
+    private final boolean enabled;
+    private final Map<Long, Map<String, PerunAttribute>> facilityAttributes = new ConcurrentHashMap<>();
+    private final Map<String, Optional<Group>> groupsByName = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    @Autowired
+    public PerunReadCache(@NonNull ConnectorProperties connectorProperties) {
+        this.enabled = connectorProperties.isReadCache();
+    }
+
+    public void clear() {
+        facilityAttributes.clear();
+        groupsByName.clear();
+        hits.set(0);
+        misses.set(0);
+    }
+
+    public void logStatistics() {
+        if (enabled) {
+            log.info("Perun read cache - hits: {}, misses: {}", hits.get(), misses.get());
+        }
+    }
+
+    /**
+     * Get cached attributes of the facility.
+     * @return Copies of the attributes, or NULL if any of the attributes is not cached.
+     */
+    public Map<String, PerunAttribute> getAttributes(@NonNull Long facilityId, Collection<String> attrNames) {
+        if (!enabled || attrNames == null) {
+            return null;
+        }
+        Map<String, PerunAttribute> cached = facilityAttributes.get(facilityId);
+        if (cached == null || !cached.keySet().containsAll(attrNames)) {
+            misses.incrementAndGet();
+            return null;
+        }
+        Map<String, PerunAttribute> result = new HashMap<>();
+        for (String attrName: attrNames) {
+            result.put(attrName, cached.get(attrName).copy());
+        }
+        hits.incrementAndGet();
+        return result;
+    }
+
+    /**
+     * Get cached attribute of the facility.
+     * @return Copy of the attribute, or NULL if the attribute is not cached.
+     */
+    public PerunAttribute getAttribute(@NonNull Long facilityId, @NonNull String attrName) {
+        if (!enabled) {
+            return null;
+        }
+        Map<String, PerunAttribute> cached = facilityAttributes.get(facilityId);
+        PerunAttribute attribute = cached == null ? null : cached.get(attrName);
+        if (attribute == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return attribute.copy();
+    }
+
+    public void putAttributes(@NonNull Long facilityId, Collection<PerunAttribute> attributes) {
+        if (!enabled || attributes == null) {
+            return;
+        }
+        Map<String, PerunAttribute> cached = facilityAttributes.computeIfAbsent(facilityId,
+                k -> new ConcurrentHashMap<>());
+        attributes.stream()
+                .filter(Objects::nonNull)
+                .forEach(attribute -> cached.put(attribute.getUrn(), attribute.copy()));
+    }
+
+    public void evictAttributes(@NonNull Long facilityId, Collection<PerunAttribute> attributes) {
+        Map<String, PerunAttribute> cached = facilityAttributes.get(facilityId);
+        if (cached == null || attributes == null) {
+            return;
+        }
+        attributes.stream()
+                .filter(Objects::nonNull)
+                .forEach(attribute -> cached.remove(attribute.getUrn()));
+    }
+
+    public void evictFacility(@NonNull Long facilityId) {
+        facilityAttributes.remove(facilityId);
+    }
+
+    /**
+     * Get cached group.
+     * @return NULL if the group is not cached. Empty optional if the group has been looked up and does not exist,
+     * copy of the group otherwise.
+     */
+    public Optional<Group> getGroupByName(Long voId, String groupName) {
+        if (!enabled) {
+            return null;
+        }
+        Optional<Group> cached = groupsByName.get(getGroupKey(voId, groupName));
+        if (cached == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return cached.map(this::copy);
+    }
+
+    public void putGroup(Long voId, String groupName, Group group) {
+        if (enabled) {
+            groupsByName.put(getGroupKey(voId, groupName), Optional.ofNullable(group).map(this::copy));
+        }
+    }
+
+    public void evictGroup(@NonNull Long groupId) {
+        groupsByName.values().removeIf(group -> group.isPresent() && groupId.equals(group.get().getId()));
+    }
+
+    private String getGroupKey(Long voId, String groupName) {
+        return voId + ":" + groupName;
+    }
+
+    private Group copy(Group group) {
+        return new Group(group.getId(), group.getName(), group.getShortName(), group.getDescription(),
+                group.getParentGroupId(), group.getVoId());
+    }
+
+}
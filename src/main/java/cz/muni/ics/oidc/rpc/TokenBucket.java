@@ -0,0 +1,76 @@
+package cz.muni.ics.oidc.rpc;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket limiting the rate of calls. Tokens are refilled at the given rate up to the burst size, each call
+ * takes one token and waits if there is none. Rate 0 means unlimited.
+ */
+public class TokenBucket {
+
+    private final double ratePerNano;
+    private final double burst;
+
+    private double tokens;
+    private long lastRefill;
+
+    private final AtomicLong totalWait = new AtomicLong();
+
+    /**
+     * @param rate Number of calls per second, 0 for unlimited.
+     * @param burst Number of calls that can be made at once after a period without calls.
+     */
+    public TokenBucket(double rate, int burst) {
+        this.ratePerNano = rate / TimeUnit.SECONDS.toNanos(1);
+        this.burst = Math.max(1, burst);
+        this.tokens = this.burst;
+        this.lastRefill = System.nanoTime();
+    }
+
+    public boolean isUnlimited() {
+        return ratePerNano <= 0;
+    }
+
+    /**
+     * Take a token, waits until the token is available.
+     */
+    public void acquire() throws InterruptedException {
+        long wait = reserve();
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    /**
+     * Take a token without waiting for it. The token is reserved even if not available yet, the caller must not
+     * make the call before the returned time passes.
+     * @return Time in ns until the reserved token is available, 0 if it is available now.
+     */
+    public long reserve() {
+        if (isUnlimited()) {
+            return 0;
+        }
+        long wait;
+        synchronized (this) {
+            long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - lastRefill) * ratePerNano);
+            lastRefill = now;
+            // the token is reserved even if not available yet, so the waiting calls are served in order
+            tokens -= 1;
+            wait = tokens >= 0 ? 0 : (long) Math.ceil(-tokens / ratePerNano);
+        }
+        if (wait > 0) {
+            totalWait.addAndGet(TimeUnit.NANOSECONDS.toMillis(wait));
+        }
+        return wait;
+    }
+
+    /**
+     * @return Total time in ms the calls have waited for tokens.
+     */
+    public long getTotalWait() {
+        return totalWait.get();
+    }
+
+}
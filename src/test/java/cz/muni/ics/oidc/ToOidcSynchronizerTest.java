@@ -0,0 +1,235 @@
+package cz.muni.ics.oidc;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import cz.muni.ics.oidc.data.ClientRepository;
+import cz.muni.ics.oidc.models.MitreidClient;
+import cz.muni.ics.oidc.models.PKCEAlgorithm;
+import cz.muni.ics.oidc.models.PerunAttribute;
+import cz.muni.ics.oidc.models.PerunAttributeValueAwareModel;
+import cz.muni.ics.oidc.models.RichFacility;
+import cz.muni.ics.oidc.models.SyncResult;
+import cz.muni.ics.oidc.props.ActionsProperties;
+import cz.muni.ics.oidc.props.AttrsMapping;
+import cz.muni.ics.oidc.props.ConfProperties;
+import cz.muni.ics.oidc.props.GrantTypesTimeoutsProperties;
+import cz.muni.ics.oidc.props.JdbcProperties;
+import cz.muni.ics.oidc.rpc.PerunAdapter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.mockito.ArgumentCaptor;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ToOidcSynchronizerTest {
+
+    private static final String NAMESPACE = "urn:perun:facility:attribute-def:def";
+    private static final String CLIENT_ID = NAMESPACE + ":OIDCClientID";
+    private static final String CLIENT_SECRET = NAMESPACE + ":OIDCClientSecret";
+    private static final String NAME = NAMESPACE + ":serviceName";
+    private static final String DESCRIPTION = NAMESPACE + ":serviceDescription";
+    private static final String REDIRECT_URIS = NAMESPACE + ":OIDCRedirectURIs";
+    private static final String PRIVACY_POLICY = NAMESPACE + ":privacyPolicyURL";
+    private static final String CONTACTS = NAMESPACE + ":administratorContact";
+    private static final String SCOPES = NAMESPACE + ":requiredScopes";
+    private static final String GRANT_TYPES = NAMESPACE + ":OIDCGrantTypes";
+    private static final String CODE_CHALLENGE_TYPE = NAMESPACE + ":OIDCCodeChallengeType";
+    private static final String INTROSPECTION = NAMESPACE + ":OIDCAllowIntrospection";
+    private static final String POST_LOGOUT_REDIRECT_URIS = NAMESPACE + ":OIDCPostLogoutRedirectURIs";
+    private static final String ISSUE_REFRESH_TOKENS = NAMESPACE + ":OIDCIssueRefreshTokens";
+    private static final String REUSE_REFRESH_TOKENS = NAMESPACE + ":OIDCReuseRefreshTokens";
+    private static final String TOKEN_ENDPOINT_AUTH = NAMESPACE + ":OIDCTokenEndpointAuthenticationMethod";
+    private static final String TOKEN_TIMEOUTS = NAMESPACE + ":OIDCTokenTimeouts";
+    private static final String HOME_PAGE_URI = NAMESPACE + ":informationURL";
+    private static final String PROXY_IDENTIFIER = NAMESPACE + ":proxyIdentifiers";
+
+    private static final String SECRET = "secret-of-client-1";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private PerunAdapter perunAdapter;
+    private ClientRepository clientRepository;
+    private ToOidcSynchronizer synchronizer;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        perunAdapter = mock(PerunAdapter.class);
+        clientRepository = mock(ClientRepository.class);
+        ConfProperties confProperties = new ConfProperties();
+        confProperties.setProxyIdentifierValue("https://proxy.example.org");
+        SecretKeySpec secretKeySpec = Utils.generateSecretKeySpec("encryption-secret");
+        Cipher cipher = Cipher.getInstance("AES/ECB/PKCS5PADDING");
+        ActionsProperties actionsProperties = new ActionsProperties();
+        actionsProperties.setToOidc(new ActionsProperties.Actions());
+        synchronizer = new ToOidcSynchronizer(perunAdapter, confProperties, attrsMapping(), clientRepository,
+                actionsProperties, new GrantTypesTimeoutsProperties(), new JdbcProperties(), cipher, secretKeySpec);
+        RichFacility facility = facility(Utils.encrypt(SECRET, cipher, secretKeySpec));
+        when(perunAdapter.getFacilitiesByAttributeWithAttributes(anyString(), anyString(), anyList(), anyBoolean()))
+                .thenReturn(List.of(facility));
+    }
+
+    @Test
+    void identicalClientIsUnchanged() {
+        MitreidClient stored = createdClient();
+
+        SyncResult result = sync(stored);
+
+        assertThat(result.getUnchanged()).isEqualTo(1);
+        assertThat(result.getUpdated()).isZero();
+        assertThat(result.getErrors()).isZero();
+        verify(clientRepository, never()).saveClients(anyList());
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("syncedFieldChanges")
+    void changedSyncedFieldIsUpdated(String field, Consumer<MitreidClient> change) {
+        MitreidClient stored = createdClient();
+        MitreidClient expected = createdClient();
+        change.accept(stored);
+
+        SyncResult result = sync(stored);
+
+        assertThat(result.getUpdated()).as(field).isEqualTo(1);
+        assertThat(result.getUnchanged()).isZero();
+        assertThat(result.getErrors()).isZero();
+        // the client is written with the values from Perun
+        verify(clientRepository).saveClients(List.of(stored));
+        expected.setCreatedAt(stored.getCreatedAt());
+        assertThat(stored).isEqualTo(expected);
+    }
+
+    /**
+     * Changes of each field compared by the synchronizer, except client_id - a stored client with a different
+     * client_id is not matched with the facility at all.
+     */
+    static Stream<Arguments> syncedFieldChanges() {
+        return Stream.of(
+                change("clientSecret", c -> c.setClientSecret("other")),
+                change("clientName", c -> c.setClientName("Other")),
+                change("clientDescription", c -> c.setClientDescription("Other")),
+                change("allowIntrospection", c -> c.setAllowIntrospection(!c.isAllowIntrospection())),
+                change("codeChallengeMethod", c -> c.setCodeChallengeMethod(PKCEAlgorithm.plain)),
+                change("tokenEndpointAuthMethod",
+                        c -> c.setTokenEndpointAuthMethod(MitreidClient.AuthMethod.SECRET_POST)),
+                change("clearAccessTokensOnRefresh",
+                        c -> c.setClearAccessTokensOnRefresh(!c.isClearAccessTokensOnRefresh())),
+                change("reuseRefreshToken", c -> c.setReuseRefreshToken(!c.isReuseRefreshToken())),
+                change("accessTokenValiditySeconds", c -> c.setAccessTokenValiditySeconds(1)),
+                change("idTokenValiditySeconds", c -> c.setIdTokenValiditySeconds(1)),
+                change("refreshTokenValiditySeconds", c -> c.setRefreshTokenValiditySeconds(1)),
+                change("deviceCodeValiditySeconds", c -> c.setDeviceCodeValiditySeconds(1)),
+                change("policyUri", c -> c.setPolicyUri("https://other.example.org/privacy")),
+                change("clientUri", c -> c.setClientUri("https://other.example.org")),
+                change("redirectUris", c -> c.getRedirectUris().add("https://other.example.org/callback")),
+                change("postLogoutRedirectUris", c -> c.getPostLogoutRedirectUris().clear()),
+                change("scope", c -> c.getScope().remove("email")),
+                change("grantTypes", c -> c.getGrantTypes().add(ToOidcSynchronizer.GRANT_IMPLICIT)),
+                change("responseTypes", c -> c.getResponseTypes().add(ToOidcSynchronizer.RESPONSE_TOKEN)),
+                change("contacts", c -> c.getContacts().add("other@example.org"))
+        );
+    }
+
+    private static Arguments change(String field, Consumer<MitreidClient> change) {
+        return Arguments.of(field, change);
+    }
+
+    /**
+     * @return Client created from the facility, as it would be stored by the previous run.
+     */
+    @SuppressWarnings("unchecked")
+    private MitreidClient createdClient() {
+        SyncResult result = sync();
+        assertThat(result.getCreated()).isEqualTo(1);
+        ArgumentCaptor<List<MitreidClient>> written = ArgumentCaptor.forClass(List.class);
+        verify(clientRepository).saveClients(written.capture());
+        reset(clientRepository);
+        return written.getValue().get(0);
+    }
+
+    private SyncResult sync(MitreidClient... stored) {
+        when(clientRepository.getAll()).thenReturn(List.of(stored));
+        return synchronizer.syncToOidc(false);
+    }
+
+    private RichFacility facility(String encryptedSecret) {
+        Map<String, PerunAttribute> attributes = new HashMap<>();
+        put(attributes, CLIENT_ID, PerunAttributeValueAwareModel.STRING_TYPE, "\"client-1\"");
+        put(attributes, CLIENT_SECRET, PerunAttributeValueAwareModel.STRING_TYPE, "\"" + encryptedSecret + "\"");
+        put(attributes, NAME, PerunAttributeValueAwareModel.MAP_TYPE, "{\"en\":\"Service\"}");
+        put(attributes, DESCRIPTION, PerunAttributeValueAwareModel.MAP_TYPE, "{\"en\":\"Description\"}");
+        put(attributes, REDIRECT_URIS, PerunAttributeValueAwareModel.ARRAY_TYPE,
+                "[\"https://sp.example.org/callback\"]");
+        put(attributes, PRIVACY_POLICY, PerunAttributeValueAwareModel.STRING_TYPE,
+                "\"https://sp.example.org/privacy\"");
+        put(attributes, CONTACTS, PerunAttributeValueAwareModel.ARRAY_TYPE, "[\"admin@example.org\"]");
+        put(attributes, SCOPES, PerunAttributeValueAwareModel.ARRAY_TYPE, "[\"openid\",\"email\"]");
+        put(attributes, GRANT_TYPES, PerunAttributeValueAwareModel.ARRAY_TYPE, "[\"authorization code\"]");
+        put(attributes, CODE_CHALLENGE_TYPE, PerunAttributeValueAwareModel.STRING_TYPE,
+                "\"" + ToOidcSynchronizer.PKCE_TYPE_SHA256 + "\"");
+        put(attributes, INTROSPECTION, PerunAttributeValueAwareModel.BOOLEAN_TYPE, "true");
+        put(attributes, POST_LOGOUT_REDIRECT_URIS, PerunAttributeValueAwareModel.ARRAY_TYPE,
+                "[\"https://sp.example.org/logout\"]");
+        put(attributes, ISSUE_REFRESH_TOKENS, PerunAttributeValueAwareModel.BOOLEAN_TYPE, "true");
+        put(attributes, REUSE_REFRESH_TOKENS, PerunAttributeValueAwareModel.BOOLEAN_TYPE, "true");
+        put(attributes, TOKEN_ENDPOINT_AUTH, PerunAttributeValueAwareModel.STRING_TYPE,
+                "\"client_secret_basic\"");
+        put(attributes, TOKEN_TIMEOUTS, PerunAttributeValueAwareModel.MAP_TYPE, "{\"access_token\":\"600\"}");
+        put(attributes, HOME_PAGE_URI, PerunAttributeValueAwareModel.STRING_TYPE, "\"https://sp.example.org\"");
+        return new RichFacility(1L, "SP", "Service", attributes);
+    }
+
+    private void put(Map<String, PerunAttribute> attributes, String urn, String type, String value) {
+        String friendlyName = urn.substring(NAMESPACE.length() + 1);
+        JsonNode jsonValue;
+        try {
+            jsonValue = objectMapper.readTree(value);
+        } catch (Exception e) {
+            throw new IllegalArgumentException(e);
+        }
+        attributes.put(urn, new PerunAttribute(1L, friendlyName, NAMESPACE, friendlyName, type, friendlyName,
+                true, false, "facility", friendlyName, "", jsonValue));
+    }
+
+    private static AttrsMapping attrsMapping() {
+        AttrsMapping mapping = new AttrsMapping();
+        mapping.setClientId(CLIENT_ID);
+        mapping.setClientSecret(CLIENT_SECRET);
+        mapping.setName(NAME);
+        mapping.setDescription(DESCRIPTION);
+        mapping.setRedirectUris(REDIRECT_URIS);
+        mapping.setPrivacyPolicy(PRIVACY_POLICY);
+        mapping.setContacts(List.of(CONTACTS));
+        mapping.setScopes(SCOPES);
+        mapping.setGrantTypes(GRANT_TYPES);
+        mapping.setCodeChallengeType(CODE_CHALLENGE_TYPE);
+        mapping.setIntrospection(INTROSPECTION);
+        mapping.setPostLogoutRedirectUris(POST_LOGOUT_REDIRECT_URIS);
+        mapping.setIssueRefreshTokens(ISSUE_REFRESH_TOKENS);
+        mapping.setReuseRefreshTokens(REUSE_REFRESH_TOKENS);
+        mapping.setTokenEndpointAuthenticationMethod(TOKEN_ENDPOINT_AUTH);
+        mapping.setTokenTimeouts(TOKEN_TIMEOUTS);
+        mapping.setHomePageUris(List.of(HOME_PAGE_URI));
+        mapping.setProxyIdentifier(PROXY_IDENTIFIER);
+        return mapping;
+    }
+
+}
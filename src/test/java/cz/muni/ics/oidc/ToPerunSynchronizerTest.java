@@ -0,0 +1,131 @@
+package cz.muni.ics.oidc;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.NullNode;
+import cz.muni.ics.oidc.data.ClientRepository;
+import cz.muni.ics.oidc.models.PerunAttribute;
+import cz.muni.ics.oidc.models.PerunAttributeValueAwareModel;
+import cz.muni.ics.oidc.props.ActionsProperties;
+import cz.muni.ics.oidc.props.AttrsMapping;
+import cz.muni.ics.oidc.props.ConfProperties;
+import cz.muni.ics.oidc.rpc.PerunAdapter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Cipher;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+class ToPerunSynchronizerTest {
+
+    private static final String NAMESPACE = "urn:perun:facility:attribute-def:def";
+    private static final String REDIRECT_URIS = NAMESPACE + ":OIDCRedirectURIs";
+    private static final String NAME = NAMESPACE + ":serviceName";
+    private static final String CLIENT_ID = NAMESPACE + ":OIDCClientID";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private ToPerunSynchronizer synchronizer;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        AttrsMapping attrsMapping = new AttrsMapping();
+        attrsMapping.setProxyIdentifier(NAMESPACE + ":proxyIdentifiers");
+        synchronizer = new ToPerunSynchronizer(mock(PerunAdapter.class), new ConfProperties(), attrsMapping,
+                mock(ClientRepository.class), new ActionsProperties(), Cipher.getInstance("AES/ECB/PKCS5PADDING"),
+                Utils.generateSecretKeySpec("encryption-secret"));
+    }
+
+    @Test
+    void nullDiffersFromEmptyListAndMap() throws IOException {
+        assertThat(synchronizer.valueEquals(NullNode.getInstance(), json("[]"))).isFalse();
+        assertThat(synchronizer.valueEquals(json("[]"), NullNode.getInstance())).isFalse();
+        assertThat(synchronizer.valueEquals(null, json("[]"))).isFalse();
+        assertThat(synchronizer.valueEquals(NullNode.getInstance(), json("{}"))).isFalse();
+        assertThat(synchronizer.valueEquals(json("{}"), null)).isFalse();
+        assertThat(synchronizer.valueEquals(null, null)).isTrue();
+        assertThat(synchronizer.valueEquals(NullNode.getInstance(), NullNode.getInstance())).isTrue();
+    }
+
+    @Test
+    void listsAreComparedRegardlessOfOrder() throws IOException {
+        assertThat(synchronizer.valueEquals(json("[\"b\",\"a\"]"), json("[\"a\",\"b\"]"))).isTrue();
+        assertThat(synchronizer.valueEquals(json("[\"a\",\"b\"]"), json("[\"a\",\"c\"]"))).isFalse();
+        assertThat(synchronizer.valueEquals(json("[\"a\"]"), json("[\"a\",\"a\"]"))).isFalse();
+        assertThat(synchronizer.valueEquals(json("[\"a\"]"), json("[]"))).isFalse();
+    }
+
+    @Test
+    void mapsAreComparedKeyToKey() throws IOException {
+        assertThat(synchronizer.valueEquals(json("{\"en\":\"A\",\"cs\":\"B\"}"), json("{\"cs\":\"B\",\"en\":\"A\"}")))
+                .isTrue();
+        assertThat(synchronizer.valueEquals(json("{\"en\":\"A\"}"), json("{\"en\":\"B\"}"))).isFalse();
+        assertThat(synchronizer.valueEquals(json("{\"en\":\"A\"}"), json("{\"en\":\"A\",\"cs\":\"B\"}"))).isFalse();
+    }
+
+    @Test
+    void differentKindsOfValuesDiffer() throws IOException {
+        assertThat(synchronizer.valueEquals(json("\"a\""), json("[\"a\"]"))).isFalse();
+        assertThat(synchronizer.valueEquals(json("\"a\""), json("\"b\""))).isFalse();
+        assertThat(synchronizer.valueEquals(json("\"a\""), json("\"a\""))).isTrue();
+    }
+
+    @Test
+    void nullListAndMapAttributesEqualEmptyOnes() throws IOException {
+        // the attribute stores a NULL list or map as an empty one, so setting the empty value is not a change
+        Map<String, PerunAttribute> oldAttrs = Map.of(
+                REDIRECT_URIS, attribute(REDIRECT_URIS, PerunAttributeValueAwareModel.ARRAY_TYPE, "null"),
+                NAME, attribute(NAME, PerunAttributeValueAwareModel.MAP_TYPE, "null"));
+        Map<String, PerunAttribute> newAttrs = Map.of(
+                REDIRECT_URIS, attribute(REDIRECT_URIS, PerunAttributeValueAwareModel.ARRAY_TYPE, "[]"),
+                NAME, attribute(NAME, PerunAttributeValueAwareModel.MAP_TYPE, "{}"));
+
+        assertThat(synchronizer.getChangedAttributes(oldAttrs, newAttrs)).isEmpty();
+    }
+
+    @Test
+    void reorderedListAttributeIsNotChanged() throws IOException {
+        Map<String, PerunAttribute> oldAttrs = Map.of(REDIRECT_URIS, attribute(REDIRECT_URIS,
+                PerunAttributeValueAwareModel.ARRAY_TYPE, "[\"https://b.example.org\",\"https://a.example.org\"]"));
+        Map<String, PerunAttribute> newAttrs = Map.of(REDIRECT_URIS, attribute(REDIRECT_URIS,
+                PerunAttributeValueAwareModel.ARRAY_TYPE, "[\"https://a.example.org\",\"https://b.example.org\"]"));
+
+        assertThat(synchronizer.getChangedAttributes(oldAttrs, newAttrs)).isEmpty();
+    }
+
+    @Test
+    void onlyChangedAndNewAttributesAreReturned() throws IOException {
+        PerunAttribute changedUris = attribute(REDIRECT_URIS, PerunAttributeValueAwareModel.ARRAY_TYPE,
+                "[\"https://a.example.org\",\"https://c.example.org\"]");
+        PerunAttribute unchangedName = attribute(NAME, PerunAttributeValueAwareModel.MAP_TYPE, "{\"en\":\"SP\"}");
+        PerunAttribute newClientId = attribute(CLIENT_ID, PerunAttributeValueAwareModel.STRING_TYPE, "\"client-1\"");
+        Map<String, PerunAttribute> oldAttrs = Map.of(
+                REDIRECT_URIS, attribute(REDIRECT_URIS, PerunAttributeValueAwareModel.ARRAY_TYPE,
+                        "[\"https://a.example.org\",\"https://b.example.org\"]"),
+                NAME, attribute(NAME, PerunAttributeValueAwareModel.MAP_TYPE, "{\"en\":\"SP\"}"));
+        Map<String, PerunAttribute> newAttrs = Map.of(
+                REDIRECT_URIS, changedUris,
+                NAME, unchangedName,
+                CLIENT_ID, newClientId);
+
+        List<PerunAttribute> changed = synchronizer.getChangedAttributes(oldAttrs, newAttrs);
+
+        assertThat(changed).containsExactlyInAnyOrder(changedUris, newClientId);
+    }
+
+    private JsonNode json(String value) throws IOException {
+        return objectMapper.readTree(value);
+    }
+
+    private PerunAttribute attribute(String urn, String type, String value) throws IOException {
+        String friendlyName = urn.substring(NAMESPACE.length() + 1);
+        return new PerunAttribute(1L, friendlyName, NAMESPACE, friendlyName, type, friendlyName, true, false,
+                "facility", friendlyName, "", json(value));
+    }
+
+}
@@ -0,0 +1,42 @@
+package cz.muni.ics.oidc;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UtilsTest {
+
+    private static final List<Integer> ITEMS = List.of(1, 2, 3, 4, 5, 6);
+
+    @Test
+    void processInParallelCountsFailedItems() {
+        Set<Integer> processed = ConcurrentHashMap.newKeySet();
+
+        int failed = Utils.processInParallel(ITEMS, 3, "test", item -> process(item, processed));
+
+        assertThat(failed).isEqualTo(2);
+        assertThat(processed).containsExactlyInAnyOrder(1, 2, 4, 5);
+    }
+
+    @Test
+    void processSequentiallyCountsFailedItems() {
+        Set<Integer> processed = ConcurrentHashMap.newKeySet();
+
+        int failed = Utils.processInParallel(ITEMS, 1, "test", item -> process(item, processed));
+
+        assertThat(failed).isEqualTo(2);
+        assertThat(processed).containsExactlyInAnyOrder(1, 2, 4, 5);
+    }
+
+    private static void process(int item, Set<Integer> processed) {
+        if (item % 3 == 0) {
+            throw new IllegalStateException("Failed item " + item);
+        }
+        processed.add(item);
+    }
+
+}
@@ -0,0 +1,125 @@
+package cz.muni.ics.oidc.data;
+
+import cz.muni.ics.oidc.models.MitreidClient;
+import cz.muni.ics.oidc.models.SyncResult;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+class ClientBatchWriterTest {
+
+    private static final Runnable NOTHING = () -> { };
+
+    private final ClientRepository clientRepository = mock(ClientRepository.class);
+    private final SyncResult result = new SyncResult();
+
+    @Test
+    void writesFullChunksAndFlushesTheRest() {
+        MitreidClient first = client("client-1");
+        MitreidClient second = client("client-2");
+        MitreidClient third = client("client-3");
+        SyncResult firstResult = new SyncResult();
+        SyncResult secondResult = new SyncResult();
+        SyncResult thirdResult = new SyncResult();
+
+        try (ClientBatchWriter writer = new ClientBatchWriter(clientRepository, 2, 1, result)) {
+            writer.create(first, firstResult, NOTHING);
+            writer.update(second, secondResult, NOTHING);
+            // the full chunk is written by the writer thread without waiting for flush
+            verify(clientRepository, timeout(5000)).saveClients(List.of(first, second));
+            writer.create(third, thirdResult, NOTHING);
+            writer.flush();
+        }
+
+        verify(clientRepository).saveClients(List.of(third));
+        verify(clientRepository, never()).saveClient(first);
+        assertThat(firstResult.getCreated()).isEqualTo(1);
+        assertThat(secondResult.getUpdated()).isEqualTo(1);
+        assertThat(thirdResult.getCreated()).isEqualTo(1);
+        assertThat(result.getCreated()).isZero();
+    }
+
+    @Test
+    void callbackIsRunOnceTheClientIsWritten() {
+        MitreidClient client = client("client-1");
+        SyncResult itemResult = new SyncResult();
+        AtomicBoolean written = new AtomicBoolean();
+        AtomicInteger createdWhenWritten = new AtomicInteger(-1);
+
+        try (ClientBatchWriter writer = new ClientBatchWriter(clientRepository, 10, 1, result)) {
+            writer.create(client, itemResult, () -> {
+                written.set(true);
+                createdWhenWritten.set(itemResult.getCreated());
+            });
+            assertThat(written).isFalse();
+            writer.flush();
+        }
+
+        assertThat(written).isTrue();
+        assertThat(createdWhenWritten).hasValue(1);
+    }
+
+    @Test
+    void failedChunkIsWrittenOneByOne() {
+        MitreidClient valid = client("client-1");
+        MitreidClient broken = client("client-2");
+        doThrow(new IllegalStateException("constraint violation")).when(clientRepository).saveClients(anyList());
+        doThrow(new IllegalStateException("constraint violation")).when(clientRepository).saveClient(broken);
+        SyncResult validResult = new SyncResult();
+        SyncResult brokenResult = new SyncResult();
+        AtomicInteger finished = new AtomicInteger();
+        try (ClientBatchWriter writer = new ClientBatchWriter(clientRepository, 10, 1, result)) {
+            writer.create(valid, validResult, finished::incrementAndGet);
+            writer.create(broken, brokenResult, finished::incrementAndGet);
+            writer.flush();
+        }
+
+        verify(clientRepository).saveClient(valid);
+        assertThat(validResult.getCreated()).isEqualTo(1);
+        assertThat(validResult.getErrors()).isZero();
+        assertThat(brokenResult.getCreated()).isZero();
+        assertThat(brokenResult.getErrors()).isEqualTo(1);
+        assertThat(finished).hasValue(2);
+    }
+
+    @Test
+    void lanesAreWrittenConcurrently() {
+        // both lanes have to be writing at the same time to get past the barrier
+        CyclicBarrier bothLanesWriting = new CyclicBarrier(2);
+        doAnswer(invocation -> bothLanesWriting.await(5, TimeUnit.SECONDS))
+                .when(clientRepository).saveClients(anyList());
+
+        // the client_ids have hashes of different parity, so they fall into different lanes
+        SyncResult firstResult = new SyncResult();
+        SyncResult secondResult = new SyncResult();
+        try (ClientBatchWriter writer = new ClientBatchWriter(clientRepository, 10, 2, result)) {
+            writer.create(client("client-1"), firstResult, NOTHING);
+            writer.create(client("client-2"), secondResult, NOTHING);
+            writer.flush();
+        }
+
+        assertThat(firstResult.getCreated()).isEqualTo(1);
+        assertThat(secondResult.getCreated()).isEqualTo(1);
+        assertThat(firstResult.getErrors() + secondResult.getErrors()).isZero();
+    }
+
+    private static MitreidClient client(String clientId) {
+        MitreidClient client = new MitreidClient();
+        client.setClientId(clientId);
+        return client;
+    }
+
+}
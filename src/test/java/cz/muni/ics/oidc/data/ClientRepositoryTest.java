@@ -0,0 +1,157 @@
+package cz.muni.ics.oidc.data;
+
+import cz.muni.ics.oidc.models.MitreidClient;
+import org.eclipse.persistence.config.BatchWriting;
+import org.eclipse.persistence.config.PersistenceUnitProperties;
+import org.eclipse.persistence.jpa.JpaEntityManagerFactory;
+import org.eclipse.persistence.jpa.PersistenceProvider;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.vendor.EclipseLinkJpaVendorAdapter;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+import org.springframework.transaction.annotation.EnableTransactionManagement;
+
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks that loading all the clients takes a number of statements independent of the number of clients.
+ */
+@SpringJUnitConfig(ClientRepositoryTest.Config.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class ClientRepositoryTest {
+
+    private static final int CLIENTS = 5000;
+    // the clients and each of the element collections
+    private static final int MAX_STATEMENTS = 12;
+
+    @Autowired
+    private ClientRepository clientRepository;
+
+    @Autowired
+    private DbStatementCounter dbStatementCounter;
+
+    @BeforeAll
+    void createClients() {
+        List<MitreidClient> clients = new ArrayList<>();
+        for (int i = 0; i < CLIENTS; i++) {
+            clients.add(client(i));
+            if (clients.size() == 500) {
+                clientRepository.saveClients(clients);
+                clients.clear();
+            }
+        }
+        clientRepository.saveClients(clients);
+    }
+
+    @Test
+    void getAllUsesBoundedNumberOfStatements() {
+        dbStatementCounter.reset();
+
+        List<MitreidClient> clients = clientRepository.getAll();
+
+        assertThat(clients).hasSize(CLIENTS);
+        for (MitreidClient client: clients) {
+            assertThat(client.getRedirectUris()).hasSize(2);
+            assertThat(client.getContacts()).hasSize(1);
+            assertThat(client.getScope()).containsExactlyInAnyOrder("openid", "profile");
+            assertThat(client.getGrantTypes()).hasSize(1);
+            assertThat(client.getResponseTypes()).hasSize(1);
+            assertThat(client.getDefaultACRvalues()).hasSize(1);
+            assertThat(client.getPostLogoutRedirectUris()).hasSize(1);
+            assertThat(client.getRequestUris()).hasSize(1);
+            assertThat(client.getAuthorities()).hasSize(1);
+            assertThat(client.getResourceIds()).hasSize(1);
+            assertThat(client.getClaimsRedirectUris()).hasSize(1);
+        }
+        assertThat(dbStatementCounter.getReads()).isLessThanOrEqualTo(MAX_STATEMENTS);
+    }
+
+    private static MitreidClient client(int i) {
+        String uri = "https://sp" + i + ".example.org/";
+        MitreidClient client = new MitreidClient();
+        client.setClientId("client-" + i);
+        client.setClientName("Client " + i);
+        client.setRedirectUris(Set.of(uri + "callback", uri + "callback2"));
+        client.setContacts(Set.of("admin@sp" + i + ".example.org"));
+        client.setScope(Set.of("openid", "profile"));
+        client.setGrantTypes(Set.of("authorization_code"));
+        client.setResponseTypes(Set.of("code"));
+        client.setDefaultACRvalues(Set.of("acr"));
+        client.setPostLogoutRedirectUris(Set.of(uri + "logout"));
+        client.setRequestUris(Set.of(uri + "request"));
+        client.setAuthorities(Set.of(new SimpleGrantedAuthority("ROLE_CLIENT")));
+        client.setResourceIds(Set.of("resource"));
+        client.setClaimsRedirectUris(Set.of(uri + "claims"));
+        return client;
+    }
+
+    @Configuration
+    @EnableTransactionManagement
+    static class Config {
+
+        @Bean
+        public DataSource dataSource() {
+            // the H2 platform of EclipseLink does not support H2 2.x, the MySQL mode is used instead
+            return new DriverManagerDataSource("jdbc:h2:mem:clients;MODE=MySQL;DB_CLOSE_DELAY=-1");
+        }
+
+        @Bean
+        public LocalContainerEntityManagerFactoryBean entityManagerFactory(DataSource dataSource) {
+            EclipseLinkJpaVendorAdapter adapter = new EclipseLinkJpaVendorAdapter();
+            adapter.setDatabasePlatform("org.eclipse.persistence.platform.database.MySQLPlatform");
+
+            LocalContainerEntityManagerFactoryBean bean = new LocalContainerEntityManagerFactoryBean();
+            bean.setPersistenceProviderClass(PersistenceProvider.class);
+            bean.setPackagesToScan("cz.muni.ics.oidc");
+            bean.setDataSource(dataSource);
+            bean.setJpaVendorAdapter(adapter);
+            bean.setPersistenceUnitName("defaultPersistenceUnit");
+            Map<String, Object> properties = new HashMap<>();
+            properties.put(PersistenceUnitProperties.WEAVING, "false");
+            properties.put(PersistenceUnitProperties.DDL_GENERATION, PersistenceUnitProperties.CREATE_ONLY);
+            properties.put(PersistenceUnitProperties.DDL_GENERATION_MODE,
+                    PersistenceUnitProperties.DDL_DATABASE_GENERATION);
+            // the clients must be read from the database, not from the cache filled when creating them
+            properties.put(PersistenceUnitProperties.CACHE_SHARED_DEFAULT, "false");
+            properties.put(PersistenceUnitProperties.BATCH_WRITING, BatchWriting.JDBC);
+            bean.setJpaPropertyMap(properties);
+            return bean;
+        }
+
+        @Bean
+        public JpaTransactionManager transactionManager(EntityManagerFactory entityManagerFactory) {
+            return new JpaTransactionManager(entityManagerFactory);
+        }
+
+        @Bean
+        public DbStatementCounter dbStatementCounter(EntityManagerFactory entityManagerFactory) {
+            DbStatementCounter counter = new DbStatementCounter();
+            entityManagerFactory.unwrap(JpaEntityManagerFactory.class).getServerSession()
+                    .getEventManager().addListener(counter);
+            return counter;
+        }
+
+        @Bean
+        public ClientRepository clientRepository() {
+            return new ClientRepository();
+        }
+
+    }
+
+}
@@ -0,0 +1,36 @@
+package cz.muni.ics.oidc.models;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MitreidClientIndexTest {
+
+    @Test
+    void findsClientsByClientId() {
+        MitreidClient first = client("client-1");
+        MitreidClientIndex index = new MitreidClientIndex(List.of(first, client("client-2")));
+
+        assertThat(index.getByClientId("client-1")).isSameAs(first);
+        assertThat(index.getByClientId("unknown")).isNull();
+        assertThat(index.getClientIds()).containsExactlyInAnyOrder("client-1", "client-2");
+        assertThat(index.size()).isEqualTo(2);
+    }
+
+    @Test
+    void duplicateClientIdFailsLikeTheDatabaseLookup() {
+        MitreidClientIndex index = new MitreidClientIndex(List.of(client("client-1"), client("client-1")));
+
+        assertThatThrownBy(() -> index.getByClientId("client-1")).isInstanceOf(IllegalStateException.class);
+    }
+
+    private static MitreidClient client(String clientId) {
+        MitreidClient client = new MitreidClient();
+        client.setClientId(clientId);
+        return client;
+    }
+
+}
@@ -0,0 +1,106 @@
+package cz.muni.ics.oidc.rpc;
+
+import cz.muni.ics.oidc.exception.PerunConnectionException;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    private static final long LATENCY_THRESHOLD = 1000;
+
+    @Test
+    void startsAtInitialLimit() throws PerunConnectionException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 8, 16, LATENCY_THRESHOLD, 0);
+
+        for (int i = 0; i < 8; i++) {
+            limiter.acquire();
+        }
+
+        assertThat(limiter.getLimit()).isEqualTo(8);
+        assertThat(limiter.getInFlight()).isEqualTo(8);
+        assertThatThrownBy(limiter::acquire).isInstanceOf(PerunConnectionException.class);
+    }
+
+    @Test
+    void initialLimitIsKeptWithinBounds() {
+        assertThat(new AdaptiveConcurrencyLimiter(2, 1, 4, LATENCY_THRESHOLD, 0).getLimit()).isEqualTo(2);
+        assertThat(new AdaptiveConcurrencyLimiter(2, 10, 4, LATENCY_THRESHOLD, 0).getLimit()).isEqualTo(4);
+    }
+
+    @Test
+    void failedCallsCutTheLimitDownToMin() throws PerunConnectionException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 16, 16, LATENCY_THRESHOLD, 0);
+
+        for (int i = 0; i < 20; i++) {
+            limiter.acquire();
+            limiter.release(10, true);
+        }
+
+        assertThat(limiter.getLimit()).isEqualTo(2);
+    }
+
+    @Test
+    void slowCallsCutTheLimit() throws PerunConnectionException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 8, 16, LATENCY_THRESHOLD, 0);
+
+        limiter.acquire();
+        limiter.release(LATENCY_THRESHOLD + 1, false);
+
+        assertThat(limiter.getLimit()).isEqualTo(6);
+    }
+
+    @Test
+    void fastCallsRaiseTheLimitUpToMax() throws PerunConnectionException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 4, 5, LATENCY_THRESHOLD, 0);
+
+        for (int i = 0; i < 100; i++) {
+            limiter.acquire();
+            limiter.release(10, false);
+        }
+
+        assertThat(limiter.getLimit()).isEqualTo(5);
+        assertThat(limiter.getInFlight()).isZero();
+    }
+
+    @Test
+    void waitingCallIsRejectedAfterQueueTimeout() throws PerunConnectionException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 1, LATENCY_THRESHOLD, 50);
+        limiter.acquire();
+
+        assertThatThrownBy(limiter::acquire).isInstanceOf(PerunConnectionException.class);
+        assertThat(limiter.getRejections()).isEqualTo(1);
+    }
+
+    @Test
+    void asyncWaiterGetsTheReleasedSlot() throws PerunConnectionException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 1, LATENCY_THRESHOLD, 60000);
+        limiter.acquire();
+
+        CompletableFuture<Void> slot = limiter.acquireAsync();
+        assertThat(slot).isNotDone();
+        limiter.release(10, false);
+
+        assertThat(slot).isCompleted();
+        assertThat(limiter.getInFlight()).isEqualTo(1);
+    }
+
+    @Test
+    void asyncWaiterIsRejectedAfterQueueTimeout() throws PerunConnectionException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 1, LATENCY_THRESHOLD, 50);
+        limiter.acquire();
+
+        CompletableFuture<Void> slot = limiter.acquireAsync();
+
+        assertThatThrownBy(slot::join).isInstanceOf(CompletionException.class)
+                .hasCauseInstanceOf(PerunConnectionException.class);
+        assertThat(limiter.getRejections()).isEqualTo(1);
+        limiter.release(10, false);
+        assertThat(limiter.getInFlight()).isZero();
+    }
+
+}
@@ -0,0 +1,73 @@
+package cz.muni.ics.oidc.rpc;
+
+import cz.muni.ics.oidc.exception.PerunCircuitOpenException;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CircuitBreakerTest {
+
+    @Test
+    void opensAfterConsecutiveFailures() throws PerunCircuitOpenException {
+        CircuitBreaker breaker = new CircuitBreaker(3, 60000);
+
+        fail(breaker);
+        fail(breaker);
+        succeed(breaker);
+        fail(breaker);
+        fail(breaker);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        fail(breaker);
+
+        assertThat(breaker.isOpen()).isTrue();
+        assertThatThrownBy(breaker::beforeCall).isInstanceOf(PerunCircuitOpenException.class);
+    }
+
+    @Test
+    void letsSingleTrialCallThroughAfterOpenDuration() throws PerunCircuitOpenException {
+        CircuitBreaker breaker = new CircuitBreaker(1, 0);
+        fail(breaker);
+
+        breaker.beforeCall();
+
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertThatThrownBy(breaker::beforeCall).isInstanceOf(PerunCircuitOpenException.class);
+        breaker.onSuccess();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void failedTrialCallOpensCircuitAgain() throws PerunCircuitOpenException {
+        CircuitBreaker breaker = new CircuitBreaker(1, 0);
+        fail(breaker);
+
+        breaker.beforeCall();
+        breaker.onFailure();
+
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    void cancelledTrialCallLetsAnotherOneThrough() throws PerunCircuitOpenException {
+        CircuitBreaker breaker = new CircuitBreaker(1, 0);
+        fail(breaker);
+        breaker.beforeCall();
+
+        breaker.onCancel();
+
+        breaker.beforeCall();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+    }
+
+    private static void fail(CircuitBreaker breaker) throws PerunCircuitOpenException {
+        breaker.beforeCall();
+        breaker.onFailure();
+    }
+
+    private static void succeed(CircuitBreaker breaker) throws PerunCircuitOpenException {
+        breaker.beforeCall();
+        breaker.onSuccess();
+    }
+
+}
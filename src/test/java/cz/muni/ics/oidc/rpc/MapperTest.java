@@ -0,0 +1,55 @@
+package cz.muni.ics.oidc.rpc;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import cz.muni.ics.oidc.models.PerunAttribute;
+import cz.muni.ics.oidc.models.RichFacility;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MapperTest {
+
+    private static final String ATTRIBUTE = "{\"id\":10,\"friendlyName\":\"OIDCClientID\","
+            + "\"namespace\":\"urn:perun:facility:attribute-def:def\",\"description\":null,"
+            + "\"type\":\"java.lang.String\",\"displayName\":null,\"writable\":true,\"unique\":false,"
+            + "\"entity\":\"facility\",\"baseFriendlyName\":\"OIDCClientID\",\"friendlyNameParameter\":\"\","
+            + "\"value\":\"client-1\","
+            + "\"valueCreatedAt\":null,\"valueModifiedBy\":\"admin\",\"beanName\":\"Attribute\"}";
+    private static final String FACILITIES = "[{\"id\":1,\"name\":\"SP\",\"description\":null,"
+            + "\"beanName\":\"Facility\",\"facilityAttributes\":[" + ATTRIBUTE + "]},"
+            + "{\"id\":2,\"name\":\"SP 2\",\"description\":\"Second\",\"facilityAttributes\":null}]";
+
+    private static final String CLIENT_ID_URN = "urn:perun:facility:attribute-def:def:OIDCClientID";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void streamedRichFacilitiesEqualTreeMapped() throws IOException {
+        List<RichFacility> fromTree = Mapper.mapRichFacilities(objectMapper.readTree(FACILITIES));
+        List<RichFacility> streamed = Mapper.mapRichFacilities(parser(FACILITIES));
+
+        assertThat(streamed).isEqualTo(fromTree).hasSize(2);
+        PerunAttribute attribute = streamed.get(0).getAttributes().get(CLIENT_ID_URN);
+        assertThat(attribute.getDisplayName()).isEqualTo("null");
+        assertThat(attribute.getDescription()).isEqualTo("null");
+        assertThat(attribute.valueAsString()).isEqualTo("client-1");
+        assertThat(streamed.get(0).getDescription()).isEqualTo("null");
+    }
+
+    @Test
+    void nullResponseIsMappedToEmptyList() throws IOException {
+        assertThat(Mapper.mapRichFacilities(parser("null"))).isEmpty();
+        assertThat(Mapper.mapAttributes(parser("null"))).isEmpty();
+    }
+
+    private JsonParser parser(String json) throws IOException {
+        JsonParser parser = objectMapper.getFactory().createParser(json);
+        parser.nextToken();
+        return parser;
+    }
+
+}
@@ -0,0 +1,113 @@
+package cz.muni.ics.oidc.rpc;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import cz.muni.ics.oidc.exception.PerunConnectionException;
+import cz.muni.ics.oidc.models.PerunAttribute;
+import cz.muni.ics.oidc.props.ConfProperties;
+import cz.muni.ics.oidc.props.ConnectorProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PerunAdapterAttributeDefinitionsTest {
+
+    private static final String CLIENT_ID_URN = "urn:perun:facility:attribute-def:def:OIDCClientID";
+    private static final List<String> ATTR_NAMES = List.of(CLIENT_ID_URN);
+
+    @TempDir
+    Path tempDir;
+
+    private PerunConnector perunConnector;
+    private ConfProperties confProperties;
+
+    @BeforeEach
+    void setUp() {
+        perunConnector = mock(PerunConnector.class);
+        when(perunConnector.getCallMetrics()).thenReturn(new PerunCallMetrics());
+        confProperties = new ConfProperties();
+    }
+
+    @Test
+    void definitionsAreFetchedOncePerRun() throws Exception {
+        when(perunConnector.post(eq(PerunAdapter.ATTRIBUTES_MANAGER), eq("getAttributesDefinition"), anyMap()))
+                .thenReturn(definitions(10));
+        PerunAdapter adapter = adapter();
+
+        adapter.startRun();
+        adapter.getAttributeDefinitions(ATTR_NAMES);
+        adapter.getAttributeDefinitions(ATTR_NAMES);
+        adapter.startRun();
+        Map<String, PerunAttribute> attributes = adapter.getAttributeDefinitions(ATTR_NAMES);
+
+        verify(perunConnector, times(2))
+                .post(eq(PerunAdapter.ATTRIBUTES_MANAGER), eq("getAttributesDefinition"), anyMap());
+        assertThat(attributes.get(CLIENT_ID_URN).getId()).isEqualTo(10);
+        assertThat(attributes.get(CLIENT_ID_URN).valueAsString()).isNull();
+    }
+
+    @Test
+    void changedDefinitionIsUsedInNextRun() throws Exception {
+        confProperties.setAttributeDefinitionsFileLocation(tempDir.resolve("definitions.json").toString());
+        when(perunConnector.post(eq(PerunAdapter.ATTRIBUTES_MANAGER), eq("getAttributesDefinition"), anyMap()))
+                .thenReturn(definitions(10), definitions(11));
+        PerunAdapter adapter = adapter();
+
+        adapter.startRun();
+        adapter.getAttributeDefinitions(ATTR_NAMES);
+        adapter.startRun();
+        Map<String, PerunAttribute> attributes = adapter.getAttributeDefinitions(ATTR_NAMES);
+
+        assertThat(attributes.get(CLIENT_ID_URN).getId()).isEqualTo(11);
+    }
+
+    @Test
+    void storedDefinitionsAreUsedWhenPerunIsUnreachable() throws Exception {
+        confProperties.setAttributeDefinitionsFileLocation(tempDir.resolve("definitions.json").toString());
+        when(perunConnector.post(eq(PerunAdapter.ATTRIBUTES_MANAGER), eq("getAttributesDefinition"), anyMap()))
+                .thenReturn(definitions(10))
+                .thenThrow(new PerunConnectionException("Perun is down"));
+        adapter().getAttributeDefinitions(ATTR_NAMES);
+
+        // a new instance, as in the next run of the synchronization
+        Map<String, PerunAttribute> attributes = adapter().getAttributeDefinitions(ATTR_NAMES);
+
+        assertThat(attributes.get(CLIENT_ID_URN).getId()).isEqualTo(10);
+    }
+
+    @Test
+    void unreachablePerunFailsWithoutStoredDefinitions() throws Exception {
+        when(perunConnector.post(eq(PerunAdapter.ATTRIBUTES_MANAGER), eq("getAttributesDefinition"), anyMap()))
+                .thenThrow(new PerunConnectionException("Perun is down"));
+
+        assertThatThrownBy(() -> adapter().getAttributeDefinitions(ATTR_NAMES))
+                .isInstanceOf(PerunConnectionException.class);
+    }
+
+    private PerunAdapter adapter() {
+        return new PerunAdapter(perunConnector, new PerunReadCache(new ConnectorProperties()),
+                new AttributeDefinitionCache(confProperties));
+    }
+
+    private static JsonNode definitions(long id) throws Exception {
+        return new ObjectMapper().readTree("[{\"id\":" + id + ",\"friendlyName\":\"OIDCClientID\","
+                + "\"namespace\":\"urn:perun:facility:attribute-def:def\",\"description\":\"Client ID\","
+                + "\"type\":\"java.lang.String\",\"displayName\":\"Client ID\",\"writable\":true,\"unique\":false,"
+                + "\"entity\":\"facility\",\"baseFriendlyName\":\"OIDCClientID\",\"friendlyNameParameter\":\"\","
+                + "\"value\":null}]");
+    }
+
+}
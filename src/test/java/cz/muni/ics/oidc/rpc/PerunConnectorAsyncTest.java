@@ -0,0 +1,153 @@
+package cz.muni.ics.oidc.rpc;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import cz.muni.ics.oidc.exception.PerunCircuitOpenException;
+import cz.muni.ics.oidc.exception.PerunConnectionException;
+import cz.muni.ics.oidc.props.ConnectorProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PerunConnectorAsyncTest {
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final CountDownLatch firstRequestReceived = new CountDownLatch(1);
+    private final CountDownLatch responsesReleased = new CountDownLatch(1);
+    private volatile int status = 200;
+    private ConnectorProperties properties;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        serverExecutor = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(serverExecutor);
+        server.createContext("/", this::respond);
+        server.start();
+
+        properties = new ConnectorProperties();
+        properties.setPerunUrl("http://" + InetAddress.getLoopbackAddress().getHostAddress() + ':'
+                + server.getAddress().getPort() + "/ba/rpc");
+        properties.setPerunUser("user");
+        properties.setPerunPassword("password");
+        properties.setCoalesceReads(false);
+        properties.setResponseCompression(false);
+    }
+
+    @AfterEach
+    void tearDown() {
+        responsesReleased.countDown();
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Test
+    void callWaitingForFreeSlotDoesNotBlockCaller() throws Exception {
+        properties.setMinConcurrency(1);
+        properties.setInitialConcurrency(1);
+        properties.setMaxConcurrency(1);
+        PerunConnector connector = connector();
+        CompletableFuture<JsonNode> first = connector.postAsync(PerunAdapter.ATTRIBUTES_MANAGER, "getAttributes",
+                Map.of("facility", 1));
+        assertThat(firstRequestReceived.await(5, TimeUnit.SECONDS)).isTrue();
+
+        CompletableFuture<JsonNode> second = connector.postAsync(PerunAdapter.ATTRIBUTES_MANAGER, "getAttributes",
+                Map.of("facility", 2));
+
+        assertThat(second).isNotDone();
+        assertThat(requests.get()).isEqualTo(1);
+        responsesReleased.countDown();
+        assertThat(first.get(5, TimeUnit.SECONDS).get(0).get("id").asInt()).isEqualTo(1);
+        assertThat(second.get(5, TimeUnit.SECONDS).get(0).get("id").asInt()).isEqualTo(2);
+        assertThat(connector.getConcurrencyLimiter().getInFlight()).isZero();
+    }
+
+    @Test
+    void callWaitingForRateLimiterDoesNotBlockCaller() throws Exception {
+        responsesReleased.countDown();
+        properties.setReadRateLimit(1);
+        properties.setReadRateBurst(1);
+        PerunConnector connector = connector();
+
+        long start = System.nanoTime();
+        CompletableFuture<JsonNode> first = connector.postAsync(PerunAdapter.ATTRIBUTES_MANAGER, "getAttributes",
+                Map.of("facility", 1));
+        CompletableFuture<JsonNode> second = connector.postAsync(PerunAdapter.ATTRIBUTES_MANAGER, "getAttributes",
+                Map.of("facility", 2));
+        long scheduling = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // the second call waits about a second for its token, but not in the calling thread
+        assertThat(scheduling).isLessThan(500);
+        assertThat(second).isNotDone();
+        CompletableFuture.allOf(first, second).get(5, TimeUnit.SECONDS);
+        assertThat(connector.getReadRateLimiter().getTotalWait()).isGreaterThanOrEqualTo(500);
+        assertThat(requests.get()).isEqualTo(2);
+    }
+
+    @Test
+    void openCircuitFailsCallImmediately() throws Exception {
+        responsesReleased.countDown();
+        status = 500;
+        properties.setCircuitFailureThreshold(1);
+        properties.setMaxRetries(0);
+        PerunConnector connector = connector();
+        CompletableFuture<JsonNode> failing = connector.postAsync(PerunAdapter.ATTRIBUTES_MANAGER, "getAttributes",
+                Map.of("facility", 1));
+        assertThatThrownBy(() -> failing.get(5, TimeUnit.SECONDS))
+                .hasCauseInstanceOf(PerunConnectionException.class);
+
+        CompletableFuture<JsonNode> rejected = connector.postAsync(PerunAdapter.ATTRIBUTES_MANAGER, "getAttributes",
+                Map.of("facility", 1));
+
+        assertThat(rejected).isCompletedExceptionally();
+        assertThatThrownBy(rejected::join).isInstanceOf(CompletionException.class)
+                .hasCauseInstanceOf(PerunCircuitOpenException.class);
+        assertThat(requests.get()).isEqualTo(1);
+    }
+
+    private PerunConnector connector() {
+        return new PerunConnector(new RestTemplate(), HttpClient.newHttpClient(), properties);
+    }
+
+    private void respond(HttpExchange exchange) throws IOException {
+        String request = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        requests.incrementAndGet();
+        firstRequestReceived.countDown();
+        try {
+            responsesReleased.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // echoes the facility of the request as the id of the attribute
+        String facility = request.replaceAll("\\D", "");
+        byte[] body = ("[{\"id\":" + facility + "}]").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+}
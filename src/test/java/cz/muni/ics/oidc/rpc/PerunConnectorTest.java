@@ -0,0 +1,190 @@
+package cz.muni.ics.oidc.rpc;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import cz.muni.ics.oidc.exception.PerunCircuitOpenException;
+import cz.muni.ics.oidc.exception.PerunConnectionException;
+import cz.muni.ics.oidc.exception.PerunUnknownException;
+import cz.muni.ics.oidc.props.ConnectorProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.http.HttpClient;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.springframework.test.web.client.ExpectedCount.once;
+import static org.springframework.test.web.client.ExpectedCount.times;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withServerError;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+class PerunConnectorTest {
+
+    private static final String URL = "https://perun.example.org/ba/rpc";
+    private static final String GET_ATTRIBUTES_URL = URL + "/json/" + PerunAdapter.ATTRIBUTES_MANAGER
+            + "/getAttributes";
+    private static final String GET_RICH_FACILITIES_URL = URL + "/json/" + PerunAdapter.FACILITIES_MANAGER
+            + "/getFacilitiesByAttributeWithAttributes";
+    private static final Map<String, Object> PARAMS = Map.of("facility", 1);
+
+    private RestTemplate restTemplate;
+    private MockRestServiceServer server;
+    private ConnectorProperties properties;
+
+    @BeforeEach
+    void setUp() {
+        restTemplate = new RestTemplate();
+        server = MockRestServiceServer.bindTo(restTemplate).build();
+        properties = new ConnectorProperties();
+        properties.setPerunUrl(URL);
+        properties.setPerunUser("user");
+        properties.setPerunPassword("password");
+        properties.setRetryInitialBackoff(1);
+        properties.setRetryMaxBackoff(1);
+    }
+
+    @Test
+    void concurrentIdenticalReadsShareOneCall() throws Exception {
+        CountDownLatch responseReleased = new CountDownLatch(1);
+        server.expect(once(), requestTo(GET_ATTRIBUTES_URL))
+                .andRespond(request -> {
+                    awaitUninterruptibly(responseReleased);
+                    return withSuccess("[{\"id\":1}]", MediaType.APPLICATION_JSON).createResponse(request);
+                });
+        PerunConnector connector = connector();
+        AtomicReference<JsonNode> firstResult = new AtomicReference<>();
+        AtomicReference<JsonNode> secondResult = new AtomicReference<>();
+
+        Thread first = new Thread(() -> firstResult.set(getAttributes(connector)));
+        first.start();
+        awaitState(first, Thread.State.WAITING);
+        Thread second = new Thread(() -> secondResult.set(getAttributes(connector)));
+        second.start();
+        // the second call waits for the response of the first one
+        awaitState(second, Thread.State.WAITING);
+        responseReleased.countDown();
+        first.join();
+        second.join();
+
+        assertThat(firstResult.get()).isEqualTo(secondResult.get()).isNotSameAs(secondResult.get());
+        server.verify();
+    }
+
+    @Test
+    void completedReadIsNotReused() throws Exception {
+        server.expect(times(2), requestTo(GET_ATTRIBUTES_URL))
+                .andRespond(withSuccess("[]", MediaType.APPLICATION_JSON));
+        PerunConnector connector = connector();
+
+        JsonNode first = connector.post(PerunAdapter.ATTRIBUTES_MANAGER, "getAttributes", PARAMS);
+        JsonNode second = connector.post(PerunAdapter.ATTRIBUTES_MANAGER, "getAttributes", PARAMS);
+
+        assertThat(first).isEqualTo(second);
+        server.verify();
+    }
+
+    @Test
+    void receivedBytesOfTreeResponseAreCounted() throws Exception {
+        String body = "[{\"id\":1,\"name\":\"SP\"}]";
+        server.expect(once(), requestTo(GET_ATTRIBUTES_URL))
+                .andRespond(withSuccess(body, MediaType.APPLICATION_JSON));
+        PerunConnector connector = connector();
+
+        JsonNode result = connector.post(PerunAdapter.ATTRIBUTES_MANAGER, "getAttributes", PARAMS);
+
+        assertThat(result.get(0).get("name").asText()).isEqualTo("SP");
+        assertThat(connector.getCallMetrics().snapshot().get(PerunAdapter.ATTRIBUTES_MANAGER + "/getAttributes")
+                .getBytesReceived()).isEqualTo(body.length());
+        server.verify();
+    }
+
+    @Test
+    void emptyResponseIsNull() throws Exception {
+        server.expect(once(), requestTo(GET_ATTRIBUTES_URL)).andRespond(withSuccess());
+        PerunConnector connector = connector();
+
+        assertThat(connector.post(PerunAdapter.ATTRIBUTES_MANAGER, "getAttributes", PARAMS)).isNull();
+        server.verify();
+    }
+
+    @Test
+    void malformedResponseFailsWithoutRetry() {
+        properties.setCircuitFailureThreshold(1);
+        server.expect(once(), requestTo(GET_ATTRIBUTES_URL))
+                .andRespond(withSuccess("{not json}", MediaType.APPLICATION_JSON));
+        PerunConnector connector = connector();
+
+        assertThatThrownBy(() -> connector.post(PerunAdapter.ATTRIBUTES_MANAGER, "getAttributes", PARAMS))
+                .isInstanceOf(PerunUnknownException.class);
+        assertThat(connector.getRetries()).isZero();
+        assertThat(connector.getCircuitBreaker().getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        server.verify();
+    }
+
+    @Test
+    void malformedStreamedResponseFailsWithoutRetry() {
+        server.expect(once(), requestTo(GET_RICH_FACILITIES_URL))
+                .andRespond(withSuccess("{\"id\":1}", MediaType.APPLICATION_JSON));
+        PerunConnector connector = connector();
+
+        assertThatThrownBy(() -> connector.post(PerunAdapter.FACILITIES_MANAGER,
+                "getFacilitiesByAttributeWithAttributes", PARAMS, Mapper::mapRichFacilities))
+                .isInstanceOf(PerunUnknownException.class);
+        assertThat(connector.getRetries()).isZero();
+        server.verify();
+    }
+
+    @Test
+    void openCircuitRejectsCallsWithoutWaitingForRateLimiter() {
+        properties.setCircuitFailureThreshold(1);
+        properties.setMaxRetries(0);
+        properties.setReadRateLimit(0.1);
+        properties.setReadRateBurst(1);
+        server.expect(once(), requestTo(GET_ATTRIBUTES_URL)).andRespond(withServerError());
+        PerunConnector connector = connector();
+        assertThatThrownBy(() -> connector.post(PerunAdapter.ATTRIBUTES_MANAGER, "getAttributes", PARAMS))
+                .isInstanceOf(PerunConnectionException.class);
+
+        assertThatThrownBy(() -> connector.post(PerunAdapter.ATTRIBUTES_MANAGER, "getAttributes", PARAMS))
+                .isInstanceOf(PerunCircuitOpenException.class);
+        assertThat(connector.getReadRateLimiter().getTotalWait()).isZero();
+        server.verify();
+    }
+
+    private PerunConnector connector() {
+        return new PerunConnector(restTemplate, HttpClient.newHttpClient(), properties);
+    }
+
+    private static JsonNode getAttributes(PerunConnector connector) {
+        try {
+            return connector.post(PerunAdapter.ATTRIBUTES_MANAGER, "getAttributes", PARAMS);
+        } catch (PerunUnknownException | PerunConnectionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void awaitState(Thread thread, Thread.State state) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (thread.getState() != state) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Thread " + thread.getName() + " is " + thread.getState());
+            }
+            Thread.sleep(5);
+        }
+    }
+
+}
@@ -0,0 +1,80 @@
+package cz.muni.ics.oidc.rpc;
+
+import com.fasterxml.jackson.databind.node.TextNode;
+import cz.muni.ics.oidc.models.Group;
+import cz.muni.ics.oidc.models.PerunAttribute;
+import cz.muni.ics.oidc.props.ConnectorProperties;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PerunReadCacheTest {
+
+    private static final Long FACILITY_ID = 1L;
+    private static final String CLIENT_ID_URN = "urn:perun:facility:attribute-def:def:OIDCClientID";
+
+    private final PerunReadCache cache = new PerunReadCache(new ConnectorProperties());
+
+    @Test
+    void returnsCopiesOfCachedAttributes() {
+        cache.putAttributes(FACILITY_ID, List.of(attribute("client-1")));
+
+        Map<String, PerunAttribute> cached = cache.getAttributes(FACILITY_ID, List.of(CLIENT_ID_URN));
+        cached.get(CLIENT_ID_URN).setValue(String.class.getName(), TextNode.valueOf("modified"));
+
+        assertThat(cache.getAttribute(FACILITY_ID, CLIENT_ID_URN).valueAsString()).isEqualTo("client-1");
+    }
+
+    @Test
+    void missesWhenAnyAttributeIsNotCached() {
+        cache.putAttributes(FACILITY_ID, List.of(attribute("client-1")));
+
+        assertThat(cache.getAttributes(FACILITY_ID, List.of(CLIENT_ID_URN, "urn:other"))).isNull();
+    }
+
+    @Test
+    void evictedAttributesAreNotReturned() {
+        cache.putAttributes(FACILITY_ID, List.of(attribute("client-1")));
+
+        cache.evictAttributes(FACILITY_ID, List.of(attribute("client-2")));
+
+        assertThat(cache.getAttribute(FACILITY_ID, CLIENT_ID_URN)).isNull();
+    }
+
+    @Test
+    void remembersMissingGroups() {
+        cache.putGroup(1L, "missing", null);
+        cache.putGroup(1L, "managers", new Group(5L, "managers", "managers", "", 2L, 1L));
+
+        assertThat(cache.getGroupByName(1L, "missing")).isEmpty();
+        assertThat(cache.getGroupByName(1L, "managers")).map(Group::getId).contains(5L);
+        assertThat(cache.getGroupByName(1L, "unknown")).isNull();
+
+        cache.evictGroup(5L);
+        assertThat(cache.getGroupByName(1L, "managers")).isNull();
+    }
+
+    @Test
+    void disabledCacheKeepsNothing() {
+        ConnectorProperties properties = new ConnectorProperties();
+        properties.setReadCache(false);
+        PerunReadCache disabled = new PerunReadCache(properties);
+
+        disabled.putAttributes(FACILITY_ID, List.of(attribute("client-1")));
+        disabled.putGroup(1L, "managers", new Group(5L, "managers", "managers", "", 2L, 1L));
+
+        assertThat(disabled.getAttribute(FACILITY_ID, CLIENT_ID_URN)).isNull();
+        assertThat(disabled.getGroupByName(1L, "managers")).isNull();
+    }
+
+    private static PerunAttribute attribute(String value) {
+        return new PerunAttribute(10L, "OIDCClientID", "urn:perun:facility:attribute-def:def", "",
+                String.class.getName(), "Client ID", true, false, "facility", "OIDCClientID", "",
+                TextNode.valueOf(value));
+    }
+
+}
@@ -0,0 +1,48 @@
+package cz.muni.ics.oidc.rpc;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TokenBucketTest {
+
+    @Test
+    void burstIsServedWithoutWaiting() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(1, 5);
+
+        for (int i = 0; i < 5; i++) {
+            bucket.acquire();
+        }
+
+        assertThat(bucket.getTotalWait()).isZero();
+    }
+
+    @Test
+    void callsOverBurstWaitForTokens() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(20, 1);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            bucket.acquire();
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        // two calls over the burst, 50 ms for each token
+        assertThat(elapsedMillis).isGreaterThanOrEqualTo(90);
+        // a late wake up from the first wait shortens the second one
+        assertThat(bucket.getTotalWait()).isGreaterThanOrEqualTo(45);
+    }
+
+    @Test
+    void zeroRateIsUnlimited() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(0, 1);
+
+        for (int i = 0; i < 1000; i++) {
+            bucket.acquire();
+        }
+
+        assertThat(bucket.isUnlimited()).isTrue();
+        assertThat(bucket.getTotalWait()).isZero();
+    }
+
+}